@@ -0,0 +1,74 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.benchmarks;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.env.BuildEnvStore;
+import com.schbrain.ci.jenkins.plugins.integration.builder.env.EnvVarsSnapshot;
+import hudson.FilePath;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The round trip of the build variables between the builder and the variable contributor
+ *
+ * @author liaozan
+ * @since 2022/3/5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildEnvBenchmark {
+
+    private static final String BUILD_ID = "folder/job#1";
+
+    @Param({"20", "200"})
+    private int variables;
+
+    private Map<String, String> envVars;
+    private FilePath directory;
+    private BuildEnvStore store;
+    private EnvVarsSnapshot snapshot;
+
+    @Setup
+    public void setUp() throws Exception {
+        envVars = new HashMap<>();
+        for (int i = 0; i < variables; i++) {
+            envVars.put("VARIABLE_" + i, "value-" + i);
+        }
+        directory = new FilePath(Files.createTempDirectory("integration-env").toFile());
+        store = BuildEnvStore.get();
+        snapshot = new EnvVarsSnapshot(store, BUILD_ID, directory);
+        snapshot.save(envVars);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        store.evict(BUILD_ID, directory);
+        directory.deleteRecursive();
+    }
+
+    /**
+     * Save, read back and clear, as done once per build
+     */
+    @Benchmark
+    public Map<String, String> saveReadClear() throws Exception {
+        store.save(BUILD_ID, directory, envVars);
+        Map<String, String> loaded = store.load(BUILD_ID, directory);
+        store.evict(BUILD_ID, directory);
+        return loaded;
+    }
+
+    /**
+     * Save before a command when no variable changed, as done before most commands
+     */
+    @Benchmark
+    public boolean saveUnchanged() throws Exception {
+        return snapshot.save(envVars);
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.benchmarks;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.Logger;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.RemoteFileLookup;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.WorkspaceFileIndex;
+import hudson.FilePath;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Look up a file in a synthetic multi module workspace
+ *
+ * @author liaozan
+ * @since 2022/3/5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileLookupBenchmark {
+
+    @Param({"1000", "10000"})
+    private int files;
+
+    private File root;
+    private FilePath workspace;
+    private Logger logger;
+    private List<FilePath> dockerfiles;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("workspace").toFile();
+        int modules = Math.max(1, files / 100);
+        for (int i = 0; i < files; i++) {
+            File directory = new File(root, "module-" + i % modules + "/src/main/java/package" + i % 7);
+            Files.createDirectories(directory.toPath());
+            Files.write(new File(directory, "Source" + i + ".java").toPath(), new byte[0]);
+        }
+        dockerfiles = new ArrayList<>(modules);
+        for (int i = 0; i < modules; i++) {
+            File dockerfile = new File(root, "module-" + i + "/Dockerfile");
+            Files.write(dockerfile.toPath(), new byte[0]);
+            dockerfiles.add(new FilePath(dockerfile));
+        }
+        Files.write(new File(root, "Dockerfile").toPath(), new byte[0]);
+        dockerfiles.add(new FilePath(new File(root, "Dockerfile")));
+        workspace = new FilePath(root);
+        logger = Logger.of(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        new FilePath(root).deleteRecursive();
+    }
+
+    @Benchmark
+    public FilePath lookupFile() throws IOException, InterruptedException {
+        return FileUtils.lookupFile(workspace, "Dockerfile", logger);
+    }
+
+    /**
+     * What the build node runs for a lookup of the Dockerfile and its content in a single remoting call
+     */
+    @Benchmark
+    public RemoteFileLookup.Result remoteLookupAndRead() throws IOException, InterruptedException {
+        return new RemoteFileLookup(WorkspaceFileIndex.DEFAULT_EXCLUDES).read("Dockerfile").invoke(root, null);
+    }
+
+    @Benchmark
+    public FilePath getTheClosestFile() {
+        return FileUtils.getTheClosestFile(dockerfiles);
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.benchmarks;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.Logger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Format the banner lines written to the build log
+ *
+ * @author liaozan
+ * @since 2022/3/5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBenchmark {
+
+    private Logger logger;
+
+    @Setup
+    public void setUp() {
+        logger = Logger.of(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    @Benchmark
+    public void banner() {
+        logger.println("docker build %s finished in %ss", true, new Object[]{"registry.example.com/app:1.0.0-42", 12});
+    }
+
+    @Benchmark
+    public void bannerWithoutArguments() {
+        logger.println("docker build image is skipped", true);
+    }
+
+    @Benchmark
+    public void plainLine() {
+        logger.println("  maven            SUCCESS      42.1s", false);
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.benchmarks;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.TemplateUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Render a deploy template with the variables of a build
+ *
+ * @author liaozan
+ * @since 2022/3/5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    /**
+     * Placeholders in the template, a typical deploy template has a few dozen
+     */
+    @Param({"20", "200"})
+    private int placeholders;
+
+    /**
+     * Variables of the build, most of them are not referenced by the template
+     */
+    @Param({"50", "500"})
+    private int variables;
+
+    private String template;
+    private Map<String, String> envVars;
+
+    @Setup
+    public void setUp() {
+        envVars = new HashMap<>();
+        for (int i = 0; i < variables; i++) {
+            envVars.put("VARIABLE_" + i, "value-" + i);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < placeholders; i++) {
+            builder.append("  - name: VARIABLE_").append(i).append('\n')
+                    .append("    value: \"{VARIABLE_").append(i % (variables + 10)).append("}\"\n");
+        }
+        template = builder.toString();
+    }
+
+    @Benchmark
+    public String format() {
+        return TemplateUtils.format(template, envVars);
+    }
+
+}
@@ -1,25 +1,56 @@
 package com.schbrain.ci.jenkins.plugins.integration.builder;
 
 import com.schbrain.ci.jenkins.plugins.integration.builder.env.BuildEnvContributor;
+import com.schbrain.ci.jenkins.plugins.integration.builder.env.EnvVarsSnapshot;
+import com.schbrain.ci.jenkins.plugins.integration.builder.metrics.StageMetrics;
 import com.schbrain.ci.jenkins.plugins.integration.builder.util.Logger;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.PrefixedOutputStream;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.TailOutputStream;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.WorkspaceFileIndex;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
-import hudson.model.AbstractBuild;
-import hudson.model.BuildListener;
-import hudson.tasks.Shell;
+import hudson.Proc;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.StreamBuildListener;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import jenkins.util.BuildListenerAdapter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * @author zhangdd on 2022/1/21
  */
 public class BuilderContext {
 
-    private final AbstractBuild<?, ?> build;
+    /**
+     * How much of the output of a failed command is kept to classify the failure
+     */
+    private static final int OUTPUT_TAIL_SIZE = 16 * 1024;
+
+    /**
+     * The artifact directory of the contents too large to be printed in the build log
+     */
+    private static final String LOG_DUMP_DIRECTORY = "integration-logs";
+
+    private final Run<?, ?> build;
     private final Launcher launcher;
     private final FilePath workspace;
-    private final BuildListener listener;
+    private final TaskListener listener;
     private final Logger logger;
+    private final EnvVars environment;
     private final EnvVars envVars;
+    private final WorkspaceFileIndex fileIndex;
+    private final EnvVarsSnapshot envVarsSnapshot;
+    private final boolean archiveLogDumps;
 
     private BuilderContext(Builder builder) {
         this.build = builder.build;
@@ -27,37 +58,145 @@ public class BuilderContext {
         this.workspace = builder.workspace;
         this.listener = builder.listener;
         this.logger = builder.logger;
+        this.environment = builder.environment;
         this.envVars = builder.envVars;
+        this.fileIndex = new WorkspaceFileIndex(builder.workspace, builder.fileIndexExcludes);
+        this.envVarsSnapshot = BuildEnvContributor.newSnapshot(builder.build, builder.workspace);
+        this.archiveLogDumps = builder.archiveLogDumps;
+    }
+
+    private BuilderContext(BuilderContext parent, TaskListener listener) {
+        this.build = parent.build;
+        this.launcher = parent.launcher;
+        this.workspace = parent.workspace;
+        this.listener = listener;
+        this.logger = parent.logger.withDelegate(listener.getLogger());
+        this.environment = parent.environment;
+        this.envVars = parent.envVars;
+        this.fileIndex = parent.fileIndex;
+        this.envVarsSnapshot = parent.envVarsSnapshot;
+        this.archiveLogDumps = parent.archiveLogDumps;
+    }
+
+    /**
+     * Create a context for a concurrent branch of the build, the output of the branch is prefixed in the build log.
+     * <p>
+     * The branch shares the build variables of this context, which are only changed through {@link #putEnvVar(String, String)}.
+     */
+    public BuilderContext fork(String logPrefix) {
+        PrefixedOutputStream output = new PrefixedOutputStream(logPrefix, listener.getLogger());
+        return new BuilderContext(this, new StreamBuildListener(output, StandardCharsets.UTF_8));
     }
 
     public void execute(String command) throws InterruptedException {
-        executeWithRetry(command, 2);
+        execute(command, RetryPolicy.TRANSIENT);
     }
 
-    public void executeWithRetry(String command, int retryCount) {
-        boolean canContinue = true;
-        int retryTimes = 0;
-        do {
-            try {
+    /**
+     * Run the command through a shell, which stops at the first failing command and traces the executed ones
+     */
+    public void execute(String command, RetryPolicy retryPolicy) throws InterruptedException {
+        ArgumentListBuilder shellCommand = new ArgumentListBuilder("sh", "-xe", "-c", command);
+        executeWithRetry(command, null, retryPolicy, output -> launch(shellCommand, output));
+    }
+
+    public void execute(ArgumentListBuilder command, @CheckForNull Supplier<OutputStream> output) throws InterruptedException {
+        execute(command, output, RetryPolicy.TRANSIENT);
+    }
+
+    /**
+     * Launch the command directly on the build node, without wrapping it in a shell script
+     *
+     * @param output supplies the stream which receives the output of each attempt, the build log if null
+     */
+    public void execute(ArgumentListBuilder command, @CheckForNull Supplier<OutputStream> output, RetryPolicy retryPolicy) throws InterruptedException {
+        executeWithRetry(command.toString(), output, retryPolicy, attemptOutput -> launch(command, attemptOutput));
+    }
+
+    /**
+     * Launch the command once, with the build variables as environment
+     *
+     * @return the exit code
+     */
+    public int launch(ArgumentListBuilder command, @CheckForNull OutputStream output) throws IOException, InterruptedException {
+        return start(command, output).join();
+    }
+
+    /**
+     * Start the command in the background, the caller is responsible for joining or killing it
+     */
+    public Proc start(ArgumentListBuilder command, @CheckForNull OutputStream output) throws IOException, InterruptedException {
+        return launcher.launch()
+                .cmds(command)
+                .envs(getLaunchEnvironment())
+                .pwd(workspace)
+                .stdout(output == null ? listener.getLogger() : output)
+                .start();
+    }
+
+    /**
+     * The environment of the launched commands, the environment of the step overridden by the build variables
+     */
+    public EnvVars getLaunchEnvironment() {
+        EnvVars launchEnvironment = new EnvVars(environment);
+        launchEnvironment.overrideAll(getEnvVars());
+        return launchEnvironment;
+    }
+
+    /**
+     * @throws IllegalStateException if the command failed, with the exit code and the cause of the last attempt
+     * @throws InterruptedException  if the build was aborted
+     */
+    private void executeWithRetry(String command, @CheckForNull Supplier<OutputStream> output, RetryPolicy retryPolicy, Attempt attempt) throws InterruptedException {
+        int attemptNumber = 0;
+        try {
+            while (true) {
+                attemptNumber++;
                 log("%s", command);
-                BuildEnvContributor.clearEnvVarsFromDisk(getWorkspace().getBaseName());
-                BuildEnvContributor.saveEnvVarsToDisk(getEnvVars(), getWorkspace().getBaseName());
-                Shell shell = new Shell(command);
-                canContinue = shell.perform(getBuild(), getLauncher(), getListener());
-            } catch (Exception exception) {
-                exception.printStackTrace(logger);
-            } finally {
-                if (!canContinue) {
-                    ++retryTimes;
+                envVarsSnapshot.save(getEnvVars());
+                long startTime = System.currentTimeMillis();
+                TailOutputStream attemptOutput = new TailOutputStream(output == null ? listener.getLogger() : output.get(), OUTPUT_TAIL_SIZE);
+                int exitCode;
+                String failure;
+                try {
+                    exitCode = attempt.run(attemptOutput);
+                    failure = attemptOutput.getTail();
+                } catch (InterruptedException exception) {
+                    throw exception;
+                } catch (Exception exception) {
+                    exception.printStackTrace(logger);
+                    exitCode = -1;
+                    failure = exception.toString();
+                }
+                String duration = String.format("%.1fs", (System.currentTimeMillis() - startTime) / 1000.0);
+                if (exitCode == 0) {
+                    return;
                 }
+
+                String cause = retryPolicy.classify(exitCode, failure);
+                String attemptDescription = String.format("attempt %s/%s failed with exit code %s after %s",
+                        attemptNumber, retryPolicy.getMaxAttempts(), exitCode, duration);
+                if (cause == null) {
+                    log("%s, not retryable", attemptDescription);
+                    throw new IllegalStateException(String.format("command failed with exit code %s, not retryable: %s", exitCode, command));
+                }
+                if (attemptNumber >= retryPolicy.getMaxAttempts()) {
+                    log("%s, %s, no attempt left", attemptDescription, cause);
+                    throw new IllegalStateException(String.format("command failed with exit code %s after %s attempts, %s: %s",
+                            exitCode, attemptNumber, cause, command));
+                }
+                long backoffMillis = retryPolicy.getBackoffMillis(attemptNumber);
+                log("%s, %s, retrying in %sms", attemptDescription, cause, backoffMillis);
+                Thread.sleep(backoffMillis);
             }
-        } while (retryTimes < retryCount && !canContinue);
-        if (!canContinue) {
-            throw new IllegalStateException("build task has been interrupted");
+        } finally {
+            StageMetrics.current().recordCommand(attemptNumber);
+            // the command may have changed the workspace
+            fileIndex.invalidate();
         }
     }
 
-    public AbstractBuild<?, ?> getBuild() {
+    public Run<?, ?> getBuild() {
         return build;
     }
 
@@ -69,7 +208,7 @@ public class BuilderContext {
         return workspace;
     }
 
-    public BuildListener getListener() {
+    public TaskListener getListener() {
         return listener;
     }
 
@@ -77,28 +216,89 @@ public class BuilderContext {
         return logger;
     }
 
+    /**
+     * A copy of the build variables, the variables are shared by the concurrent stages of the build
+     */
     public EnvVars getEnvVars() {
-        return envVars;
+        synchronized (envVars) {
+            return new EnvVars(envVars);
+        }
+    }
+
+    @CheckForNull
+    public String getEnvVar(String name) {
+        synchronized (envVars) {
+            return envVars.get(name);
+        }
+    }
+
+    public void putEnvVar(String name, String value) {
+        synchronized (envVars) {
+            envVars.put(name, value);
+        }
+    }
+
+    /**
+     * Add the variables which are not defined yet, the existing ones are kept
+     */
+    public void putEnvVarsIfAbsent(Map<String, String> variables) {
+        synchronized (envVars) {
+            variables.forEach(envVars::putIfAbsent);
+        }
+    }
+
+    public WorkspaceFileIndex getFileIndex() {
+        return fileIndex;
+    }
+
+    /**
+     * The computer of the node the workspace is on
+     *
+     * @return null if the node is offline
+     */
+    @CheckForNull
+    public Computer getComputer() {
+        return workspace.toComputer();
     }
 
     public void log(String template) {
-        log(template, (Object) null);
+        logger.println(template, true);
     }
 
     public void log(String template, Object... arguments) {
         logger.println(template, true, arguments);
     }
 
+    /**
+     * Print the head of a large file of the build node, the file is archived as an artifact of the build
+     * if it does not fit in the dump limit of the logger
+     *
+     * @param head   the beginning of the file, at least as long as the dump limit if the file is longer
+     * @param length the length of the file in characters
+     */
+    public void dump(String title, FilePath file, String head, int length) throws IOException, InterruptedException {
+        if (!archiveLogDumps || length <= logger.getDumpLimit()) {
+            logger.dump(title, head, length, null);
+            return;
+        }
+        String artifactPath = LOG_DUMP_DIRECTORY + "/" + file.getName();
+        build.pickArtifactManager().archive(file.getParent(), launcher, BuildListenerAdapter.wrap(listener), Collections.singletonMap(artifactPath, file.getName()));
+        logger.dump(title, head, length, artifactPath);
+    }
+
     public static class Builder {
 
-        private AbstractBuild<?, ?> build;
+        private Run<?, ?> build;
         private Launcher launcher;
         private FilePath workspace;
-        private BuildListener listener;
+        private TaskListener listener;
         private Logger logger;
+        private EnvVars environment;
         private EnvVars envVars;
+        private String fileIndexExcludes;
+        private boolean archiveLogDumps;
 
-        public Builder build(AbstractBuild<?, ?> build) {
+        public Builder build(Run<?, ?> build) {
             this.build = build;
             return this;
         }
@@ -113,7 +313,7 @@ public class BuilderContext {
             return this;
         }
 
-        public Builder listener(BuildListener listener) {
+        public Builder listener(TaskListener listener) {
             this.listener = listener;
             return this;
         }
@@ -123,11 +323,29 @@ public class BuilderContext {
             return this;
         }
 
+        /**
+         * The environment the step runs in, e.g. with the variables of the enclosing {@code withEnv} in a pipeline
+         */
+        public Builder environment(EnvVars environment) {
+            this.environment = environment;
+            return this;
+        }
+
         public Builder envVars(EnvVars envVars) {
             this.envVars = envVars;
             return this;
         }
 
+        public Builder fileIndexExcludes(String fileIndexExcludes) {
+            this.fileIndexExcludes = fileIndexExcludes;
+            return this;
+        }
+
+        public Builder archiveLogDumps(boolean archiveLogDumps) {
+            this.archiveLogDumps = archiveLogDumps;
+            return this;
+        }
+
         public BuilderContext build() {
 
             return new BuilderContext(this);
@@ -135,4 +353,15 @@ public class BuilderContext {
 
     }
 
+    @FunctionalInterface
+    private interface Attempt {
+
+        /**
+         * @param output receives the output of the attempt
+         * @return the exit code
+         */
+        int run(OutputStream output) throws Exception;
+
+    }
+
 }
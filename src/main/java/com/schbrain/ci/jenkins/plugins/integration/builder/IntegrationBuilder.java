@@ -1,37 +1,60 @@
 package com.schbrain.ci.jenkins.plugins.integration.builder;
 
+import com.schbrain.ci.jenkins.plugins.integration.builder.coalesce.DeployLane;
 import com.schbrain.ci.jenkins.plugins.integration.builder.config.DeployToK8sConfig;
 import com.schbrain.ci.jenkins.plugins.integration.builder.config.DockerConfig;
-import com.schbrain.ci.jenkins.plugins.integration.builder.config.DockerConfig.PushConfig;
+import com.schbrain.ci.jenkins.plugins.integration.builder.config.DockerConfig.Image;
 import com.schbrain.ci.jenkins.plugins.integration.builder.config.MavenConfig;
-import com.schbrain.ci.jenkins.plugins.integration.builder.constants.Constants.DockerConstants;
+import com.schbrain.ci.jenkins.plugins.integration.builder.metrics.MetricsRegistry;
+import com.schbrain.ci.jenkins.plugins.integration.builder.metrics.StageMetrics;
+import com.schbrain.ci.jenkins.plugins.integration.builder.metrics.StageMetricsAction;
 import com.schbrain.ci.jenkins.plugins.integration.builder.util.Logger;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.WorkspaceFileIndex;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractBuild;
-import hudson.model.BuildListener;
-import hudson.model.Descriptor;
+import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
+import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.springframework.lang.Nullable;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * The integration build step, of the freestyle jobs and of the pipelines
+ * <p>
+ * In a pipeline, several steps can run in the {@code parallel} branches, each on the workspace of its own node.
+ *
  * @author liaozan
  * @since 2022/1/14
  */
-public class IntegrationBuilder extends Builder {
+public class IntegrationBuilder extends Builder implements SimpleBuildStep {
 
     private final MavenConfig mavenConfig;
     private final DockerConfig dockerConfig;
     private final DeployToK8sConfig deployToK8sConfig;
 
+    private Boolean coalesceDeploys;
+
     @DataBoundConstructor
     public IntegrationBuilder(@Nullable MavenConfig mavenConfig,
                               @Nullable DockerConfig dockerConfig,
@@ -56,27 +79,54 @@ public class IntegrationBuilder extends Builder {
         return deployToK8sConfig;
     }
 
+    /**
+     * Only push and deploy the images of the newest build, see {@link DeployLane}
+     */
+    public Boolean getCoalesceDeploys() {
+        return Util.fixNull(coalesceDeploys, false);
+    }
+
+    @DataBoundSetter
+    public void setCoalesceDeploys(Boolean coalesceDeploys) {
+        this.coalesceDeploys = coalesceDeploys;
+    }
+
     /**
      * Builder start
      */
     @Override
-    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
-        EnvVars envVars = new EnvVars(build.getBuildVariables());
+    public void perform(Run<?, ?> build, FilePath workspace, EnvVars environment, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
+        IntegrationDescriptor descriptor = getDescriptor();
         BuilderContext builderContext = new BuilderContext.Builder()
                 .build(build)
                 .launcher(launcher)
                 .listener(listener)
-                .logger(Logger.of(listener.getLogger()))
-                .workspace(checkWorkspaceValid(build.getWorkspace()))
-                .envVars(envVars)
+                .logger(Logger.of(listener.getLogger(), descriptor.getLogLevel(), descriptor.getLogDumpLimit()))
+                .workspace(checkWorkspaceValid(workspace))
+                .environment(environment)
+                .envVars(getBuildVariables(build, environment))
+                .fileIndexExcludes(descriptor.getFileIndexExcludes())
+                .archiveLogDumps(descriptor.isArchiveLogDumps())
                 .build();
         try {
             this.doPerformBuild(builderContext);
+        } catch (InterruptedException | AbortException e) {
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace(listener.getLogger());
-            return false;
+            // the stack trace is printed already
+            throw new AbortException("integration build failed: " + e);
         }
-        return true;
+    }
+
+    /**
+     * The variables the build shares with its commands, the build variables of a freestyle build,
+     * the whole environment of the step in a pipeline, which has no build variables
+     */
+    private EnvVars getBuildVariables(Run<?, ?> build, EnvVars environment) {
+        if (build instanceof AbstractBuild) {
+            return new EnvVars(((AbstractBuild<?, ?>) build).getBuildVariables());
+        }
+        return new EnvVars(environment);
     }
 
     @Override
@@ -85,26 +135,84 @@ public class IntegrationBuilder extends Builder {
     }
 
     protected void doPerformBuild(BuilderContext context) throws Exception {
+        Run<?, ?> build = context.getBuild();
+        DeployLane deployLane = getCoalesceDeploys() ? DeployLane.of(build.getParent()) : null;
+        if (deployLane != null) {
+            deployLane.enter(build.getNumber());
+        }
         try {
             // fail fast if workspace is invalid
             checkWorkspaceValid(context.getWorkspace());
+
+            AtomicReference<List<String>> dockerfiles = new AtomicReference<>(Collections.emptyList());
+            AtomicReference<List<Image>> images = new AtomicReference<>(Collections.emptyList());
+            AtomicReference<Map<String, String>> deployFiles = new AtomicReference<>(Collections.emptyMap());
+
+            StageScheduler scheduler = new StageScheduler(context.getLogger());
             // maven build
-            performMavenBuild(context);
+            scheduler.stage("maven", () -> performMavenBuild(context));
+            // the Dockerfile does not depend on the maven build
+            scheduler.stage("dockerfile", () -> dockerfiles.set(lookupDockerfiles(context)));
+            // the config locations may refer to the docker build info produced by maven
+            scheduler.stage("k8s-config", () -> checkK8sConfig(context), "maven");
+            // image names rely on the docker build info produced by maven
+            scheduler.stage("docker-image", () -> images.set(resolveImages(context, dockerfiles.get())), "maven", "dockerfile");
             // docker build
-            performDockerBuild(context);
+            scheduler.stage("docker-build", () -> performDockerBuild(context, images.get()), "docker-image");
             // docker push
-            performDockerPush(context);
+            scheduler.stage("docker-push", () -> {
+                if (claimDeployLane(context, deployLane)) {
+                    performDockerPush(context, images.get());
+                }
+            }, "docker-build");
+            // the deploy file only needs the image name
+            scheduler.stage("deploy-render", () -> deployFiles.set(renderDeployFiles(context)), "docker-image", "k8s-config");
             // deploy
-            deployToRemote(context);
+            scheduler.stage("deploy", () -> deployToRemote(context, deployFiles.get(), deployLane), "docker-push", "deploy-render");
+            try {
+                scheduler.run();
+            } finally {
+                recordMetrics(context, scheduler);
+            }
         } catch (Exception exception) {
             exception.printStackTrace(context.getLogger());
             throw exception;
         } finally {
-            // prune images
-            pruneImages(context);
-            // delete the built image if possible
-            deleteImageAfterBuild(context);
+            if (deployLane != null) {
+                deployLane.leave(build.getNumber());
+            }
+        }
+    }
+
+    /**
+     * Claim the deploy lane with the images of the build
+     *
+     * @return false if a newer build claimed the lane, the push and the deploy of this build are then skipped
+     */
+    private boolean claimDeployLane(BuilderContext context, @CheckForNull DeployLane deployLane) {
+        if (deployLane == null) {
+            return true;
+        }
+        int buildNumber = context.getBuild().getNumber();
+        List<Integer> supersededBuilds = deployLane.claim(buildNumber);
+        if (!supersededBuilds.isEmpty()) {
+            context.log("build #%s supersedes the in-flight builds %s", buildNumber, supersededBuilds);
+        }
+        int supersedingBuild = deployLane.getSupersedingBuild(buildNumber);
+        if (supersedingBuild > 0) {
+            context.log("docker push is skipped, build #%s is superseded by build #%s", buildNumber, supersedingBuild);
+            return false;
         }
+        return true;
+    }
+
+    private void recordMetrics(BuilderContext context, StageScheduler scheduler) {
+        Run<?, ?> build = context.getBuild();
+        Computer computer = context.getComputer();
+        String node = computer == null ? "offline" : StringUtils.defaultIfEmpty(computer.getName(), "built-in");
+        List<StageMetrics> metrics = scheduler.getMetrics();
+        build.addOrReplaceAction(new StageMetricsAction(node, metrics));
+        MetricsRegistry.get().record(build.getParent().getFullName(), node, metrics);
     }
 
     /**
@@ -133,85 +241,152 @@ public class IntegrationBuilder extends Builder {
         mavenConfig.build(context);
     }
 
-    private void performDockerBuild(BuilderContext context) throws Exception {
+    private List<String> lookupDockerfiles(BuilderContext context) throws Exception {
         DockerConfig dockerConfig = getDockerConfig();
         if (dockerConfig == null) {
             context.log("docker build is not checked");
-            return;
+            return Collections.emptyList();
         }
 
-        dockerConfig.build(context);
+        return dockerConfig.lookupDockerfiles(context);
     }
 
-    private void performDockerPush(BuilderContext context) throws Exception {
+    private List<Image> resolveImages(BuilderContext context, List<String> dockerfiles) throws Exception {
         DockerConfig dockerConfig = getDockerConfig();
         if (dockerConfig == null) {
-            context.log("docker build is not checked");
-            return;
-        }
-        PushConfig pushConfig = dockerConfig.getPushConfig();
-        if (pushConfig == null) {
-            context.log("docker push is not checked");
-            return;
+            return Collections.emptyList();
         }
 
-        pushConfig.build(context);
+        return dockerConfig.resolveImages(context, dockerfiles);
     }
 
-    private void pruneImages(BuilderContext context) throws Exception {
+    private void performDockerBuild(BuilderContext context, List<Image> images) throws Exception {
         DockerConfig dockerConfig = getDockerConfig();
         if (dockerConfig == null) {
-            context.log("docker build is not checked");
             return;
         }
-        context.execute("docker image prune -f");
+
+        dockerConfig.buildImages(context, images);
     }
 
-    /**
-     * Delete the image produced in the build
-     */
-    private void deleteImageAfterBuild(BuilderContext context) throws InterruptedException {
+    private void performDockerPush(BuilderContext context, List<Image> images) throws InterruptedException {
         DockerConfig dockerConfig = getDockerConfig();
         if (dockerConfig == null) {
-            context.log("docker build is not checked");
             return;
         }
-        if (!dockerConfig.getDeleteImageAfterBuild()) {
-            context.log("delete built image is skip");
+
+        dockerConfig.pushImages(context, images);
+    }
+
+    private void checkK8sConfig(BuilderContext context) throws Exception {
+        DeployToK8sConfig k8sConfig = getDeployToK8sConfig();
+        if (k8sConfig == null) {
+            context.log("k8s deploy is not checked");
             return;
         }
 
-        String imageName = context.getEnvVars().get(DockerConstants.IMAGE);
-        if (imageName == null) {
-            return;
+        k8sConfig.checkConfigLocation(context);
+    }
+
+    private Map<String, String> renderDeployFiles(BuilderContext context) throws Exception {
+        DeployToK8sConfig k8sConfig = getDeployToK8sConfig();
+        if (k8sConfig == null) {
+            return Collections.emptyMap();
         }
 
-        String command = String.format("docker rmi -f %s", imageName);
-        context.execute(command);
+        return k8sConfig.renderDeployFiles(context);
     }
 
     /**
      * 部署镜像到远端
      */
-    private void deployToRemote(BuilderContext context) throws Exception {
+    private void deployToRemote(BuilderContext context, Map<String, String> deployFiles, @CheckForNull DeployLane deployLane) throws Exception {
         DeployToK8sConfig k8sConfig = getDeployToK8sConfig();
         if (k8sConfig == null) {
-            context.log("k8s deploy is not checked");
             return;
         }
 
-        k8sConfig.build(context);
+        k8sConfig.apply(context, deployFiles, deployLane);
     }
 
     // can not move outside builder class
     @Extension
+    @Symbol("integration")
     @SuppressWarnings({"unused"})
-    public static class IntegrationDescriptor extends Descriptor<Builder> {
+    public static class IntegrationDescriptor extends BuildStepDescriptor<Builder> {
+
+        private static final int DEFAULT_IMAGE_DISK_BUDGET = 20;
+
+        private String fileIndexExcludes = WorkspaceFileIndex.DEFAULT_EXCLUDES;
+        private int imageDiskBudget = DEFAULT_IMAGE_DISK_BUDGET;
+        private Logger.Level logLevel = Logger.Level.INFO;
+        private int logDumpLimit = Logger.DEFAULT_DUMP_LIMIT;
+        private boolean archiveLogDumps = true;
 
         public IntegrationDescriptor() {
             load();
         }
 
+        public String getFileIndexExcludes() {
+            return fileIndexExcludes;
+        }
+
+        @DataBoundSetter
+        public void setFileIndexExcludes(String fileIndexExcludes) {
+            this.fileIndexExcludes = fileIndexExcludes;
+        }
+
+        /**
+         * The disk space in GB the images of a node may use before the least recently used ones are removed, 0 to disable
+         */
+        public int getImageDiskBudget() {
+            return imageDiskBudget;
+        }
+
+        @DataBoundSetter
+        public void setImageDiskBudget(int imageDiskBudget) {
+            this.imageDiskBudget = Math.max(imageDiskBudget, 0);
+        }
+
+        public Logger.Level getLogLevel() {
+            return logLevel == null ? Logger.Level.INFO : logLevel;
+        }
+
+        @DataBoundSetter
+        public void setLogLevel(Logger.Level logLevel) {
+            this.logLevel = logLevel;
+        }
+
+        /**
+         * How many characters of a large content, e.g. a rendered deploy file, are printed in the build log
+         */
+        public int getLogDumpLimit() {
+            return logDumpLimit;
+        }
+
+        @DataBoundSetter
+        public void setLogDumpLimit(int logDumpLimit) {
+            this.logDumpLimit = Math.max(logDumpLimit, 0);
+        }
+
+        /**
+         * Whether the large contents which do not fit in the build log are archived as build artifacts
+         */
+        public boolean isArchiveLogDumps() {
+            return archiveLogDumps;
+        }
+
+        @DataBoundSetter
+        public void setArchiveLogDumps(boolean archiveLogDumps) {
+            this.archiveLogDumps = archiveLogDumps;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
         @Override
         public String getDisplayName() {
             return "发布集成";
@@ -219,6 +394,7 @@ public class IntegrationBuilder extends Builder {
 
         @Override
         public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
+            req.bindJSON(this, formData);
             save();
             return super.configure(req, formData);
         }
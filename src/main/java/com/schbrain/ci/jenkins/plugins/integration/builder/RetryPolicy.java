@@ -0,0 +1,171 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * When and how often a failed command is attempted again.
+ * <p>
+ * A failure is retried only if it is classified as transient, i.e. its exit code is one of the retryable exit codes
+ * and the tail of its output matches one of the retryable patterns. Attempts are delayed with an exponential backoff
+ * and equal jitter, so that concurrent builds do not retry in lockstep.
+ *
+ * @author liaozan
+ * @since 2022/3/3
+ */
+public class RetryPolicy {
+
+    private static final List<String> NETWORK_PATTERNS = Arrays.asList(
+            "connection reset", "connection refused", "broken pipe", "TLS handshake timeout",
+            "i/o timeout", "read timed out", "connect timed out", "temporary failure in name resolution");
+
+    /**
+     * Run the command once
+     */
+    public static final RetryPolicy NEVER = new Builder().maxAttempts(1).build();
+
+    /**
+     * Network failures of any command
+     */
+    public static final RetryPolicy TRANSIENT = new Builder()
+            .maxAttempts(2)
+            .retryOn(NETWORK_PATTERNS)
+            .build();
+
+    /**
+     * Artifact downloads and deploys, a compile or test failure is never retried
+     */
+    public static final RetryPolicy MAVEN = new Builder()
+            .maxAttempts(2)
+            .retryOn(NETWORK_PATTERNS)
+            .retryOn("Could not transfer artifact", "Failed to transfer file", "status code: 50[234]",
+                    "Received fatal alert", "Remote host terminated the handshake")
+            .build();
+
+    /**
+     * Registry errors and throttling of docker pull and push
+     */
+    public static final RetryPolicy DOCKER_REGISTRY = new Builder()
+            .maxAttempts(4)
+            .backoff(2_000, 30_000)
+            .retryOn(NETWORK_PATTERNS)
+            .retryOn("received unexpected HTTP status: 5\\d\\d", "50[0234] (Internal Server Error|Bad Gateway|Service Unavailable|Gateway Time-?out)",
+                    "toomanyrequests", "net/http: request canceled", "unexpected EOF", "blob upload unknown")
+            .build();
+
+    /**
+     * Api server unavailability and throttling of kubectl
+     */
+    public static final RetryPolicy KUBECTL = new Builder()
+            .maxAttempts(3)
+            .backoff(1_000, 15_000)
+            .retryOn(NETWORK_PATTERNS)
+            .retryOn("the server is currently unable to handle the request", "Too Many Requests", "throttl",
+                    "etcdserver: request timed out", "Unable to connect to the server", "http2: client connection lost")
+            .build();
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Set<Integer> retryableExitCodes;
+    private final List<Pattern> retryablePatterns;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.retryableExitCodes = Collections.unmodifiableSet(new HashSet<>(builder.retryableExitCodes));
+        this.retryablePatterns = Collections.unmodifiableList(new ArrayList<>(builder.retryablePatterns));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Why the failure is transient, null if it should not be retried
+     *
+     * @param exitCode   the exit code of the command, -1 if it did not exit normally
+     * @param outputTail the last output of the command, or the description of the exception it failed with
+     */
+    @CheckForNull
+    public String classify(int exitCode, String outputTail) {
+        if (!retryableExitCodes.isEmpty() && !retryableExitCodes.contains(exitCode)) {
+            return null;
+        }
+        for (Pattern pattern : retryablePatterns) {
+            Matcher matcher = pattern.matcher(outputTail);
+            if (matcher.find()) {
+                return "output matched '" + matcher.group() + "'";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The delay before the next attempt, half of it is random
+     *
+     * @param attempt the failed attempt, starting with 1
+     */
+    public long getBackoffMillis(int attempt) {
+        long backoff = initialBackoffMillis << Math.min(attempt - 1, 20);
+        backoff = Math.min(backoff, maxBackoffMillis);
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    public static class Builder {
+
+        private int maxAttempts = 1;
+        private long initialBackoffMillis = 1_000;
+        private long maxBackoffMillis = 10_000;
+        private final Set<Integer> retryableExitCodes = new HashSet<>();
+        private final List<Pattern> retryablePatterns = new ArrayList<>();
+
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be positive");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder backoff(long initialBackoffMillis, long maxBackoffMillis) {
+            this.initialBackoffMillis = initialBackoffMillis;
+            this.maxBackoffMillis = Math.max(initialBackoffMillis, maxBackoffMillis);
+            return this;
+        }
+
+        /**
+         * Only the failures with these exit codes are retried, any exit code if none is given
+         */
+        public Builder retryOnExitCodes(Integer... exitCodes) {
+            this.retryableExitCodes.addAll(Arrays.asList(exitCodes));
+            return this;
+        }
+
+        /**
+         * Case insensitive regular expressions, searched in the output tail
+         */
+        public Builder retryOn(String... patterns) {
+            return retryOn(Arrays.asList(patterns));
+        }
+
+        public Builder retryOn(Collection<String> patterns) {
+            for (String pattern : patterns) {
+                this.retryablePatterns.add(Pattern.compile(pattern, Pattern.CASE_INSENSITIVE));
+            }
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+
+    }
+
+}
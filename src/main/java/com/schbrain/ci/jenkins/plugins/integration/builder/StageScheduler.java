@@ -0,0 +1,244 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.metrics.StageMetrics;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run the stages of a build as a dependency graph, a stage starts as soon as all the stages it depends on are finished.
+ * <p>
+ * If a stage fails, the stages depending on it are skipped, the running ones are waited for,
+ * and the first failure is rethrown when the graph is finished.
+ *
+ * @author liaozan
+ * @since 2022/2/18
+ */
+public class StageScheduler {
+
+    private final Logger logger;
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    public StageScheduler(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Add a stage, the stages it depends on must be added before
+     */
+    public StageScheduler stage(String name, StageTask task, String... dependencies) {
+        if (stages.containsKey(name)) {
+            throw new IllegalArgumentException("duplicated stage " + name);
+        }
+        List<Stage> dependencyStages = new ArrayList<>(dependencies.length);
+        for (String dependency : dependencies) {
+            Stage dependencyStage = stages.get(dependency);
+            if (dependencyStage == null) {
+                throw new IllegalArgumentException("stage " + name + " depends on unknown stage " + dependency);
+            }
+            dependencyStages.add(dependencyStage);
+        }
+        stages.put(name, new Stage(name, task, dependencyStages));
+        return this;
+    }
+
+    public Collection<Stage> getStages() {
+        return Collections.unmodifiableCollection(stages.values());
+    }
+
+    /**
+     * The metrics of the stages, in the order they were added
+     */
+    public List<StageMetrics> getMetrics() {
+        List<StageMetrics> metrics = new ArrayList<>(stages.size());
+        for (Stage stage : stages.values()) {
+            metrics.add(stage.metrics);
+        }
+        return metrics;
+    }
+
+    public void run() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool(newThreadFactory());
+        CompletionService<Stage> completionService = new ExecutorCompletionService<>(executor);
+        long startTime = System.currentTimeMillis();
+        Exception failure = null;
+        int running = 0;
+        try {
+            Set<Stage> pending = new LinkedHashSet<>(stages.values());
+            while (!pending.isEmpty() || running > 0) {
+                for (Iterator<Stage> iterator = pending.iterator(); iterator.hasNext(); ) {
+                    Stage stage = iterator.next();
+                    if (stage.hasFailedDependency()) {
+                        stage.state = State.SKIPPED;
+                        stage.metrics.complete(State.SKIPPED.name(), 0);
+                        iterator.remove();
+                    } else if (stage.isReady()) {
+                        stage.state = State.RUNNING;
+                        stage.startTime = System.currentTimeMillis() - startTime;
+                        completionService.submit(() -> execute(stage, startTime));
+                        running++;
+                        iterator.remove();
+                    }
+                }
+                if (running == 0) {
+                    break;
+                }
+                Stage finished = completionService.take().get();
+                running--;
+                if (finished.failure != null && failure == null) {
+                    failure = finished.failure;
+                }
+            }
+        } finally {
+            // interrupts the running stages if the build has been aborted
+            executor.shutdownNow();
+        }
+        printSummary();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Stage execute(Stage stage, long startTime) {
+        StageMetrics.bind(stage.metrics);
+        try {
+            stage.task.run();
+            stage.state = State.SUCCESS;
+        } catch (Exception e) {
+            stage.failure = e;
+            stage.state = State.FAILURE;
+        } finally {
+            stage.endTime = System.currentTimeMillis() - startTime;
+            stage.metrics.complete(stage.state.name(), stage.getDuration());
+            StageMetrics.unbind();
+        }
+        return stage;
+    }
+
+    private void printSummary() {
+        logger.println("stage durations:", false);
+        for (Stage stage : stages.values()) {
+            logger.println(String.format("  %-16s %-8s %8s", stage.name, stage.state, formatDuration(stage.getDuration())), false);
+        }
+        List<Stage> criticalPath = getCriticalPath();
+        if (criticalPath.isEmpty()) {
+            return;
+        }
+        StringJoiner joiner = new StringJoiner(" -> ");
+        for (Stage stage : criticalPath) {
+            joiner.add(stage.name + " (" + formatDuration(stage.getDuration()) + ")");
+        }
+        long total = criticalPath.get(criticalPath.size() - 1).endTime;
+        logger.println(String.format("critical path: %s, total %s", joiner, formatDuration(total)), false);
+    }
+
+    /**
+     * The chain of stages which determined the build duration, built backwards from the stage which ended last
+     */
+    public List<Stage> getCriticalPath() {
+        Stage last = latestFinished(stages.values());
+        LinkedList<Stage> path = new LinkedList<>();
+        while (last != null) {
+            path.addFirst(last);
+            last = latestFinished(last.dependencies);
+        }
+        return path;
+    }
+
+    private Stage latestFinished(Collection<Stage> candidates) {
+        Stage latest = null;
+        for (Stage candidate : candidates) {
+            if (candidate.endTime < 0) {
+                continue;
+            }
+            if (latest == null || candidate.endTime > latest.endTime) {
+                latest = candidate;
+            }
+        }
+        return latest;
+    }
+
+    private static String formatDuration(long millis) {
+        return String.format("%.1fs", millis / 1000.0);
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "integration-stage-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public enum State {
+        PENDING, RUNNING, SUCCESS, FAILURE, SKIPPED
+    }
+
+    @FunctionalInterface
+    public interface StageTask {
+
+        void run() throws Exception;
+
+    }
+
+    public static class Stage {
+
+        private final String name;
+        private final StageTask task;
+        private final List<Stage> dependencies;
+        private final StageMetrics metrics;
+
+        private volatile State state = State.PENDING;
+        private volatile Exception failure;
+        private volatile long startTime = -1;
+        private volatile long endTime = -1;
+
+        private Stage(String name, StageTask task, List<Stage> dependencies) {
+            this.name = name;
+            this.task = task;
+            this.dependencies = dependencies;
+            this.metrics = new StageMetrics(name);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Duration in milliseconds, 0 if the stage did not run
+         */
+        public long getDuration() {
+            if (startTime < 0 || endTime < 0) {
+                return 0;
+            }
+            return endTime - startTime;
+        }
+
+        private boolean isReady() {
+            for (Stage dependency : dependencies) {
+                if (dependency.state != State.SUCCESS) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean hasFailedDependency() {
+            for (Stage dependency : dependencies) {
+                if (dependency.state == State.FAILURE || dependency.state == State.SKIPPED) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
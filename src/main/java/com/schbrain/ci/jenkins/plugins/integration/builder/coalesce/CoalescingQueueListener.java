@@ -0,0 +1,68 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.coalesce;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.IntegrationBuilder;
+import hudson.Extension;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Project;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Collapse the waiting builds of a job coalescing its deploys into the newest one: a new item cancels the queued
+ * builds with the same parameters which have not been handed to an executor yet.
+ *
+ * @author liaozan
+ * @since 2022/3/9
+ */
+@Extension
+@SuppressWarnings("unused")
+public class CoalescingQueueListener extends QueueListener {
+
+    private static final Logger LOGGER = Logger.getLogger(CoalescingQueueListener.class.getName());
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem newItem) {
+        if (!(newItem.task instanceof Project)) {
+            return;
+        }
+        Project<?, ?> project = (Project<?, ?>) newItem.task;
+        IntegrationBuilder builder = project.getBuildersList().get(IntegrationBuilder.class);
+        if (builder == null || !builder.getCoalesceDeploys()) {
+            return;
+        }
+        List<ParameterValue> parameters = getParameters(newItem);
+        Queue queue = Queue.getInstance();
+        for (Queue.Item item : queue.getItems(newItem.task)) {
+            if (item.getId() == newItem.getId()) {
+                continue;
+            }
+            // an executor is about to start it
+            if (item instanceof Queue.BuildableItem && ((Queue.BuildableItem) item).isPending()) {
+                continue;
+            }
+            // builds of other parameters are not superseded
+            if (!parameters.equals(getParameters(item))) {
+                continue;
+            }
+            // the action is kept by the left item, so the cancellation can be traced from the queue api
+            item.addAction(new SupersededAction(newItem.getId()));
+            if (queue.cancel(item)) {
+                LOGGER.info(String.format("queued item %s of %s is superseded by item %s", item.getId(), project.getFullName(), newItem.getId()));
+            }
+        }
+    }
+
+    private List<ParameterValue> getParameters(Queue.Item item) {
+        ParametersAction parametersAction = item.getAction(ParametersAction.class);
+        if (parametersAction == null) {
+            return Collections.emptyList();
+        }
+        return parametersAction.getParameters();
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.coalesce;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.StageScheduler.StageTask;
+import hudson.model.Job;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The lane the builds of a job go through to push their images and deploy them, when the deploys are coalesced.
+ * <p>
+ * A build claims the lane once its images are built, the older builds which have not pushed or deployed yet are then
+ * superseded and skip these stages, only the newest image is pushed and deployed.
+ * The deploys of a target are serialized, so an older image is never applied over a newer one.
+ * <p>
+ * The lanes are kept by job instance, a job created again with the name of a deleted one gets a new lane
+ * and its build numbers are not compared with the ones of the deleted job, see {@link DeployLaneListener}.
+ *
+ * @author liaozan
+ * @since 2022/3/9
+ */
+public class DeployLane {
+
+    private static final Map<Job<?, ?>, DeployLane> LANES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ConcurrentMap<String, ReentrantLock> targetLocks = new ConcurrentHashMap<>();
+    private final SortedSet<Integer> inFlightBuilds = new TreeSet<>();
+
+    private int newestBuild;
+
+    DeployLane() {
+    }
+
+    public static DeployLane of(Job<?, ?> job) {
+        return LANES.computeIfAbsent(job, key -> new DeployLane());
+    }
+
+    static void remove(Job<?, ?> job) {
+        LANES.remove(job);
+    }
+
+    /**
+     * Remove the lane of the job unless builds are going through it, they keep using it until they complete
+     */
+    static void removeIfIdle(Job<?, ?> job) {
+        synchronized (LANES) {
+            DeployLane lane = LANES.get(job);
+            if (lane != null && lane.isIdle()) {
+                LANES.remove(job);
+            }
+        }
+    }
+
+    public synchronized void enter(int buildNumber) {
+        inFlightBuilds.add(buildNumber);
+    }
+
+    public synchronized void leave(int buildNumber) {
+        inFlightBuilds.remove(buildNumber);
+    }
+
+    synchronized boolean isIdle() {
+        return inFlightBuilds.isEmpty();
+    }
+
+    /**
+     * Claim the lane for the images of the build
+     *
+     * @return the older in-flight builds superseded by this one, empty if a newer build claimed the lane already
+     */
+    public synchronized List<Integer> claim(int buildNumber) {
+        if (buildNumber <= newestBuild) {
+            return new ArrayList<>();
+        }
+        newestBuild = buildNumber;
+        return new ArrayList<>(inFlightBuilds.headSet(buildNumber));
+    }
+
+    /**
+     * @return the number of the newer build which claimed the lane, 0 if the build is not superseded
+     */
+    public synchronized int getSupersedingBuild(int buildNumber) {
+        return newestBuild > buildNumber ? newestBuild : 0;
+    }
+
+    /**
+     * Run the deploy of a target once the running deploys of the same target are finished
+     */
+    public void deploy(String target, StageTask deploy) throws Exception {
+        ReentrantLock lock = targetLocks.computeIfAbsent(target, key -> new ReentrantLock(true));
+        lock.lockInterruptibly();
+        try {
+            deploy.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
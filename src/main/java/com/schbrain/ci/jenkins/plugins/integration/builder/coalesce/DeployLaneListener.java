@@ -0,0 +1,32 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.coalesce;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.listeners.ItemListener;
+
+/**
+ * Drop the deploy lanes of the deleted and the moved jobs
+ *
+ * @author liaozan
+ * @since 2022/3/10
+ */
+@Extension
+@SuppressWarnings("unused")
+public class DeployLaneListener extends ItemListener {
+
+    @Override
+    public void onDeleted(Item item) {
+        if (item instanceof Job) {
+            DeployLane.remove((Job<?, ?>) item);
+        }
+    }
+
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        if (item instanceof Job) {
+            DeployLane.removeIfIdle((Job<?, ?>) item);
+        }
+    }
+
+}
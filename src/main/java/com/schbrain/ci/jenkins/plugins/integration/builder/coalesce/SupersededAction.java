@@ -0,0 +1,27 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.coalesce;
+
+import hudson.model.InvisibleAction;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Records on a cancelled queue item the newer item which superseded it
+ *
+ * @author liaozan
+ * @since 2022/3/10
+ */
+@ExportedBean
+public class SupersededAction extends InvisibleAction {
+
+    private final long supersedingItemId;
+
+    public SupersededAction(long supersedingItemId) {
+        this.supersedingItemId = supersedingItemId;
+    }
+
+    @Exported
+    public long getSupersedingItemId() {
+        return supersedingItemId;
+    }
+
+}
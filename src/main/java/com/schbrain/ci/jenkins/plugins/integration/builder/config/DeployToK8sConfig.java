@@ -1,9 +1,19 @@
 package com.schbrain.ci.jenkins.plugins.integration.builder.config;
 
+import com.schbrain.ci.jenkins.plugins.integration.builder.BuilderContext;
+import com.schbrain.ci.jenkins.plugins.integration.builder.coalesce.DeployLane;
 import com.schbrain.ci.jenkins.plugins.integration.builder.config.deploy.DeployStyleRadio;
+import com.schbrain.ci.jenkins.plugins.integration.builder.config.deploy.DeployTarget;
+import com.schbrain.ci.jenkins.plugins.integration.builder.config.deploy.PointDeployFileComponent;
 import com.schbrain.ci.jenkins.plugins.integration.builder.config.entry.Entry;
 import com.schbrain.ci.jenkins.plugins.integration.builder.constants.Constants.DockerConstants;
+import com.schbrain.ci.jenkins.plugins.integration.builder.k8s.AppliedManifestCache;
+import com.schbrain.ci.jenkins.plugins.integration.builder.k8s.KubectlClient;
+import com.schbrain.ci.jenkins.plugins.integration.builder.k8s.RolloutWorkload;
 import com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.Logger;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.ParallelTasks;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Util;
@@ -12,7 +22,10 @@ import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author liaozan
@@ -21,17 +34,43 @@ import java.util.List;
 @SuppressWarnings("unused")
 public class DeployToK8sConfig extends BuildConfig<DeployToK8sConfig> {
 
+    private static final int DEFAULT_ROLLOUT_TIMEOUT = 300;
+
+    private static final int DEFAULT_DEPLOY_PARALLELISM = 3;
+
+    private static final Pattern NAMESPACE_PATTERN = Pattern.compile("^\\s+namespace:\\s*[\"']?([\\w.-]+)", Pattern.MULTILINE);
+
     private final List<Entry> entries;
 
     private final String configLocation;
 
     private final DeployStyleRadio deployStyle;
 
+    private final Boolean trackRollout;
+
+    private final Integer rolloutTimeout;
+
+    private final String podSelector;
+
+    private final List<DeployTarget> targets;
+
+    private final Integer deployParallelism;
+
+    private final Boolean forceDeploy;
+
     @DataBoundConstructor
-    public DeployToK8sConfig(List<Entry> entries, String configLocation, DeployStyleRadio deployStyle) {
+    public DeployToK8sConfig(List<Entry> entries, String configLocation, DeployStyleRadio deployStyle,
+                             Boolean trackRollout, Integer rolloutTimeout, String podSelector,
+                             List<DeployTarget> targets, Integer deployParallelism, Boolean forceDeploy) {
         this.entries = Util.fixNull(entries);
         this.configLocation = Util.fixNull(configLocation);
         this.deployStyle = deployStyle;
+        this.trackRollout = Util.fixNull(trackRollout, false);
+        this.rolloutTimeout = Util.fixNull(rolloutTimeout, DEFAULT_ROLLOUT_TIMEOUT);
+        this.podSelector = Util.fixNull(podSelector);
+        this.targets = Util.fixNull(targets);
+        this.deployParallelism = Util.fixNull(deployParallelism, DEFAULT_DEPLOY_PARALLELISM);
+        this.forceDeploy = Util.fixNull(forceDeploy, false);
     }
 
     public List<Entry> getEntries() {
@@ -46,31 +85,257 @@ public class DeployToK8sConfig extends BuildConfig<DeployToK8sConfig> {
         return deployStyle;
     }
 
-    public void doBuild() throws Exception {
-        String imageName = envVars.get(DockerConstants.IMAGE);
+    /**
+     * Wait for the rollout after apply, the build fails if it does not finish in time
+     */
+    public Boolean getTrackRollout() {
+        return Util.fixNull(trackRollout, false);
+    }
+
+    /**
+     * The rollout deadline in seconds
+     */
+    public Integer getRolloutTimeout() {
+        return Util.fixNull(rolloutTimeout, DEFAULT_ROLLOUT_TIMEOUT);
+    }
+
+    /**
+     * The label selector of the deployed pods, app=APP_NAME if blank
+     */
+    public String getPodSelector() {
+        return Util.fixNull(podSelector);
+    }
+
+    /**
+     * The clusters and namespaces to deploy to, the config location alone if empty
+     */
+    public List<DeployTarget> getTargets() {
+        return Util.fixNull(targets);
+    }
+
+    /**
+     * How many targets are deployed at the same time
+     */
+    public Integer getDeployParallelism() {
+        return Util.fixNull(deployParallelism, DEFAULT_DEPLOY_PARALLELISM);
+    }
+
+    /**
+     * Apply the deploy file even if it is the same as the last applied one
+     */
+    public Boolean getForceDeploy() {
+        return Util.fixNull(forceDeploy, false);
+    }
+
+    @Override
+    public void doBuild(BuilderContext context) throws Exception {
+        checkConfigLocation(context);
+        Map<String, String> deployFiles = renderDeployFiles(context);
+        apply(context, deployFiles);
+    }
+
+    /**
+     * Fail fast if the specified k8s configs do not exist, or the entries of a target can not be applied
+     */
+    public void checkConfigLocation(BuilderContext context) throws Exception {
+        for (DeployTarget target : getDeployTargets()) {
+            // a specified deploy file is not rendered, the entries of the target would be silently ignored
+            if (getDeployStyle() instanceof PointDeployFileComponent && !target.getEntries().isEmpty()) {
+                throw new IllegalArgumentException(String.format("entries of deploy target %s require a deploy template, the specified deploy file is not rendered", target.getName()));
+            }
+            String configLocation = resolveConfigLocation(context, target.getConfigLocation());
+            if (StringUtils.isBlank(configLocation)) {
+                context.log("not specified configLocation of k8s config for %s ,will use default config .", target.getName());
+                continue;
+            }
+            if (!new FilePath(context.getWorkspace(), configLocation).exists()) {
+                throw new IllegalArgumentException("k8s config not exist: " + configLocation);
+            }
+        }
+    }
+
+    /**
+     * Resolve the deploy file of each target, the deploy file is rendered once per distinct set of target variables
+     *
+     * @return the deploy file location by target name, empty if there is nothing to deploy
+     */
+    public Map<String, String> renderDeployFiles(BuilderContext context) throws Exception {
+        String imageName = context.getEnvVar(DockerConstants.IMAGE);
         if (StringUtils.isBlank(imageName)) {
             context.log("image name is empty ,skip deploy");
-            return;
+            return Collections.emptyMap();
         }
 
         DeployStyleRadio deployStyle = getDeployStyle();
         if (null == deployStyle) {
+            return Collections.emptyMap();
+        }
+        Map<Map<String, String>, String> deployFilesByVariables = new HashMap<>();
+        Map<String, String> deployFiles = new LinkedHashMap<>();
+        for (DeployTarget target : getDeployTargets()) {
+            Map<String, String> variables = target.getVariables();
+            String deployFile = deployFilesByVariables.get(variables);
+            if (deployFile == null) {
+                deployFile = deployStyle.getDeployFileLocation(context, getEntries(), variables);
+                deployFilesByVariables.put(variables, deployFile);
+            }
+            deployFiles.put(target.getName(), deployFile);
+        }
+        return deployFiles;
+    }
+
+    public void apply(BuilderContext context, Map<String, String> deployFiles) throws Exception {
+        apply(context, deployFiles, null);
+    }
+
+    /**
+     * Apply the deploy files, multiple targets are deployed concurrently and the build fails after all of them are finished
+     *
+     * @param deployLane the lane of the job if the deploys are coalesced, the targets are then skipped once a newer build claimed it
+     */
+    public void apply(BuilderContext context, Map<String, String> deployFiles, @CheckForNull DeployLane deployLane) throws Exception {
+        if (deployFiles.isEmpty()) {
+            return;
+        }
+        List<DeployTarget> targets = getDeployTargets();
+        if (targets.size() == 1) {
+            DeployTarget target = targets.get(0);
+            apply(context, target, deployFiles.get(target.getName()), deployLane);
+            return;
+        }
+
+        Map<String, Callable<?>> branches = new LinkedHashMap<>();
+        for (DeployTarget target : targets) {
+            BuilderContext branchContext = context.fork("[" + target.getName() + "] ");
+            branches.put(target.getName(), () -> {
+                apply(branchContext, target, deployFiles.get(target.getName()), deployLane);
+                return null;
+            });
+        }
+
+        context.log("deploying to %s targets with parallelism %s", targets.size(), getDeployParallelism());
+        List<ParallelTasks.Result> results = ParallelTasks.run("k8s-deploy", branches, getDeployParallelism());
+
+        List<String> failedTargets = new ArrayList<>();
+        Logger logger = context.getLogger();
+        logger.println("deploy results:", false);
+        for (ParallelTasks.Result result : results) {
+            String status = result.isSuccess() ? "SUCCESS" : "FAILURE";
+            logger.println(String.format("  %-30s %-8s %6ss  %s", result.getName(), status,
+                    result.getDurationMillis() / 1000, deployFiles.get(result.getName())), false);
+            if (!result.isSuccess()) {
+                failedTargets.add(result.getName());
+            }
+        }
+        if (!failedTargets.isEmpty()) {
+            throw new IllegalStateException("failed to deploy to targets: " + failedTargets);
+        }
+    }
+
+    private void apply(BuilderContext context, DeployTarget target, String deployFileLocation, @CheckForNull DeployLane deployLane) throws Exception {
+        if (deployLane == null) {
+            apply(context, target, deployFileLocation);
+            return;
+        }
+        int buildNumber = context.getBuild().getNumber();
+        deployLane.deploy(target.getName(), () -> {
+            int supersedingBuild = deployLane.getSupersedingBuild(buildNumber);
+            if (supersedingBuild > 0) {
+                context.log("deploy to %s is skipped, build #%s is superseded by build #%s", target.getName(), buildNumber, supersedingBuild);
+                return;
+            }
+            apply(context, target, deployFileLocation);
+        });
+    }
+
+    private void apply(BuilderContext context, DeployTarget target, String deployFileLocation) throws Exception {
+        FilePath workspace = context.getWorkspace();
+        FilePath deployFile = new FilePath(workspace, deployFileLocation);
+        String deployFileRelativePath = FileUtils.toRelativePath(workspace, deployFile);
+        String namespace = StringUtils.defaultIfBlank(target.getNamespace(), null);
+        String configLocation = resolveConfigLocation(context, target.getConfigLocation());
+
+        String manifest = deployFile.readToString();
+        String targetKey = String.join("|", context.getEnvVar(DockerConstants.APP_NAME), target.getName(),
+                Util.fixNull(configLocation), Util.fixNull(namespace));
+        AppliedManifestCache appliedManifests = new AppliedManifestCache(context.getBuild().getParent());
+        String lastApplied = appliedManifests.get(targetKey);
+        if (lastApplied != null) {
+            if (lastApplied.equals(manifest) && !getForceDeploy()) {
+                context.log("deploy file %s is the same as the last applied one, skip apply", deployFileRelativePath);
+                return;
+            }
+            context.log("changes since the last applied deploy file:");
+            for (String line : AppliedManifestCache.diffSummary(lastApplied, manifest)) {
+                context.getLogger().println("  " + line, false);
+            }
+        }
+
+        KubectlClient kubectlClient = new KubectlClient(context, configLocation, namespace);
+        kubectlClient.apply(deployFileRelativePath);
+        if (getTrackRollout()) {
+            trackRollout(context, kubectlClient, manifest, namespace);
+        }
+        // recorded once the deploy succeeded, a failed one is applied again by the next build
+        appliedManifests.put(targetKey, manifest);
+    }
+
+    private void trackRollout(BuilderContext context, KubectlClient kubectlClient, String manifest, @CheckForNull String namespace) throws Exception {
+        List<RolloutWorkload> workloads = RolloutWorkload.parse(manifest);
+        if (workloads.isEmpty()) {
+            context.log("no Deployment or StatefulSet in the deploy file, skip tracking the rollout");
             return;
         }
+        String podSelector = StringUtils.defaultIfBlank(getPodSelector(), "app=" + context.getEnvVar(DockerConstants.APP_NAME));
+        if (namespace == null) {
+            namespace = getNamespace(manifest);
+        }
+        kubectlClient.trackRollout(workloads, podSelector, namespace, getRolloutTimeout());
+    }
 
-        String configLocation = getConfigLocation();
-        if (null == configLocation) {
-            context.log("not specified configLocation of k8s config ,will use default config .");
+    /**
+     * The configured targets, or a single target of the config location
+     */
+    private List<DeployTarget> getDeployTargets() {
+        if (getTargets().isEmpty()) {
+            return Collections.singletonList(new DeployTarget("default", getConfigLocation(), null, null));
+        }
+        List<DeployTarget> targets = new ArrayList<>(getTargets().size());
+        Set<String> names = new HashSet<>();
+        for (DeployTarget target : getTargets()) {
+            String name = target.getName();
+            if (StringUtils.isBlank(name)) {
+                name = StringUtils.defaultIfBlank(target.getNamespace(), "default") + "@" + StringUtils.defaultIfBlank(target.getConfigLocation(), "default");
+                target = new DeployTarget(name, target.getConfigLocation(), target.getNamespace(), target.getEntries());
+            }
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("duplicated deploy target " + name);
+            }
+            targets.add(target);
         }
+        return targets;
+    }
 
-        String deployFileLocation = deployStyle.getDeployFileLocation(context, getEntries());
-        String deployFileRelativePath = FileUtils.toRelativePath(workspace, new FilePath(workspace, deployFileLocation));
+    /**
+     * The first namespace declared in the deploy file
+     */
+    @CheckForNull
+    private String getNamespace(String manifest) {
+        Matcher matcher = NAMESPACE_PATTERN.matcher(manifest);
+        return matcher.find() ? matcher.group(1) : null;
+    }
 
-        String command = String.format("kubectl apply -f %s", deployFileRelativePath);
-        if (StringUtils.isNotBlank(configLocation)) {
-            command = command + " --kubeconfig " + configLocation;
+    /**
+     * Expand the variables and the leading ~ of the config location, which used to be done by the shell
+     */
+    private String resolveConfigLocation(BuilderContext context, String configLocation) throws Exception {
+        if (StringUtils.isBlank(configLocation)) {
+            return configLocation;
+        }
+        if (configLocation.equals("~") || configLocation.startsWith("~/")) {
+            configLocation = "${HOME}" + configLocation.substring(1);
         }
-        context.execute(command);
+        return context.getLaunchEnvironment().expand(configLocation);
     }
 
     @Extension
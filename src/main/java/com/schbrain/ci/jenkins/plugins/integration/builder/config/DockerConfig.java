@@ -1,17 +1,32 @@
 package com.schbrain.ci.jenkins.plugins.integration.builder.config;
 
+import com.schbrain.ci.jenkins.plugins.integration.builder.BuilderContext;
 import com.schbrain.ci.jenkins.plugins.integration.builder.constants.Constants.DockerConstants;
+import com.schbrain.ci.jenkins.plugins.integration.builder.docker.BuiltImagesAction;
+import com.schbrain.ci.jenkins.plugins.integration.builder.docker.DockerClient;
+import com.schbrain.ci.jenkins.plugins.integration.builder.docker.ImageIndex;
+import com.schbrain.ci.jenkins.plugins.integration.builder.docker.ImageInputHash;
+import com.schbrain.ci.jenkins.plugins.integration.builder.docker.ImageUsageAction;
 import com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.Logger;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.ParallelTasks;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.RemoteFileLookup;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Util;
-import hudson.model.AbstractBuild;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
+import hudson.model.Run;
+import hudson.util.ListBoxModel;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.springframework.lang.Nullable;
 
+import java.util.*;
+import java.util.concurrent.Callable;
+
 import static com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils.lookupFile;
 
 /**
@@ -21,15 +36,30 @@ import static com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils
 @SuppressWarnings("unused")
 public class DockerConfig extends BuildConfig<DockerConfig> {
 
+    private static final int DEFAULT_PARALLELISM = 2;
+    private static final String BUILD_CACHE_TAG = "buildcache";
+
     private final Boolean buildImage;
     private final PushConfig pushConfig;
     private final Boolean deleteImageAfterBuild;
+    private final Boolean multiImage;
+    private final String dockerfiles;
+    private final Integer parallelism;
+    private final String cacheMode;
+    private final Boolean reuseUnchangedImage;
 
     @DataBoundConstructor
-    public DockerConfig(Boolean buildImage, PushConfig pushConfig, Boolean deleteImageAfterBuild) {
+    public DockerConfig(Boolean buildImage, PushConfig pushConfig, Boolean deleteImageAfterBuild,
+                        Boolean multiImage, String dockerfiles, Integer parallelism, String cacheMode,
+                        Boolean reuseUnchangedImage) {
         this.buildImage = Util.fixNull(buildImage, false);
         this.pushConfig = pushConfig;
         this.deleteImageAfterBuild = Util.fixNull(deleteImageAfterBuild, false);
+        this.multiImage = Util.fixNull(multiImage, false);
+        this.dockerfiles = Util.fixNull(dockerfiles);
+        this.parallelism = Util.fixNull(parallelism, DEFAULT_PARALLELISM);
+        this.cacheMode = StringUtils.defaultIfBlank(cacheMode, CacheMode.NONE.name());
+        this.reuseUnchangedImage = Util.fixNull(reuseUnchangedImage, false);
     }
 
     @Nullable
@@ -45,31 +75,362 @@ public class DockerConfig extends BuildConfig<DockerConfig> {
         return deleteImageAfterBuild;
     }
 
+    /**
+     * Build an image for every Dockerfile instead of the closest one only
+     */
+    public Boolean getMultiImage() {
+        return Util.fixNull(multiImage, false);
+    }
+
+    /**
+     * The Dockerfiles to build in multi image mode, relative to the workspace, one per line
+     */
+    public String getDockerfiles() {
+        return dockerfiles;
+    }
+
+    public Integer getParallelism() {
+        return Util.fixNull(parallelism, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Where the layer cache of the build comes from, see {@link CacheMode}
+     */
+    public String getCacheMode() {
+        return StringUtils.defaultIfBlank(cacheMode, CacheMode.NONE.name());
+    }
+
+    /**
+     * Skip the docker build when the Dockerfile, the files it copies and the build args are the same as an earlier build
+     */
+    public Boolean getReuseUnchangedImage() {
+        return Util.fixNull(reuseUnchangedImage, false);
+    }
+
     @Override
-    public void doBuild() throws Exception {
+    public void doBuild(BuilderContext context) throws Exception {
+        List<String> dockerfiles = lookupDockerfiles(context);
+        List<Image> images = resolveImages(context, dockerfiles);
+        buildImages(context, images);
+    }
+
+    /**
+     * Find the Dockerfiles to build, relative to the workspace, the closest one comes first
+     */
+    public List<String> lookupDockerfiles(BuilderContext context) throws Exception {
         if (!getBuildImage()) {
             context.log("docker build image is skipped");
-            return;
+            return Collections.emptyList();
         }
 
-        FilePath dockerfile = lookupFile(context, "Dockerfile");
-        if (dockerfile == null) {
+        List<String> dockerfiles;
+        if (getMultiImage()) {
+            dockerfiles = getDockerfileList(context);
+        } else {
+            RemoteFileLookup.Match dockerfile = lookupFile(context, DockerConstants.DOCKERFILE, RemoteFileLookup.Read.NONE);
+            dockerfiles = dockerfile == null ? Collections.emptyList() : Collections.singletonList(dockerfile.getRelativePath());
+        }
+        if (dockerfiles.isEmpty()) {
             context.log("Dockerfile not exist, skip docker build");
+            return Collections.emptyList();
+        }
+        return dockerfiles;
+    }
+
+    /**
+     * Name the image of each Dockerfile, the image of the closest Dockerfile is exported as IMAGE
+     */
+    public List<Image> resolveImages(BuilderContext context, List<String> dockerfiles) throws Exception {
+        if (dockerfiles.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Run<?, ?> build = context.getBuild();
+        EnvVars envVars = context.getEnvVars();
+
+        List<Image> images = new ArrayList<>(dockerfiles.size());
+        Set<String> imageAppNames = new HashSet<>();
+        for (String dockerfile : dockerfiles) {
+            String imageAppName = getMultiImage() ? getImageAppName(envVars, dockerfile) : envVars.get(DockerConstants.APP_NAME);
+            if (!imageAppNames.add(imageAppName)) {
+                throw new IllegalArgumentException("duplicated image name " + imageAppName + " of " + dockerfile);
+            }
+            String imageName = getFullImageName(envVars, build, imageAppName);
+            Image image = new Image(imageAppName, imageName, dockerfile, getCacheRefs(build, imageName));
+            images.add(getReuseUnchangedImage() ? reuseUnchangedImage(context, image) : image);
+        }
+
+        List<String> imageNames = new ArrayList<>(images.size());
+        for (Image image : images) {
+            imageNames.add(image.getName());
+        }
+        // recorded for the cache of the following builds
+        build.addOrReplaceAction(new BuiltImagesAction(imageNames));
+        Computer computer = context.getComputer();
+        String nodeName = computer == null ? null : computer.getName();
+        build.addOrReplaceAction(new ImageUsageAction(getUsedImages(images), getDeleteImageAfterBuild(), nodeName));
+        if (CacheMode.valueOf(getCacheMode()) != CacheMode.NONE) {
+            // the inline cache metadata and the remote cache sources need BuildKit
+            context.putEnvVar(DockerConstants.DOCKER_BUILDKIT, "1");
+        }
+
+        context.putEnvVar(DockerConstants.IMAGE, images.get(0).getName());
+        if (getMultiImage()) {
+            context.putEnvVar(DockerConstants.IMAGES, StringUtils.join(imageNames, ","));
+        }
+        return images;
+    }
+
+    /**
+     * Build the images, in multi image mode the images are built concurrently
+     * and the build fails after all the images are finished
+     */
+    public void buildImages(BuilderContext context, List<Image> images) throws Exception {
+        if (images.isEmpty()) {
             return;
         }
-        String imageName = getFullImageName(envVars, build);
-        if (imageName == null) {
+        if (!getMultiImage()) {
+            buildImage(context, images.get(0));
             return;
         }
-        envVars.put(DockerConstants.IMAGE, imageName);
+        runConcurrently(context, "build", images, this::buildImage);
+    }
 
-        String relativePath = FileUtils.toRelativePath(workspace, dockerfile);
-        String command = String.format("docker build -t %s -f %s .", imageName, relativePath);
-        context.execute(command);
+    /**
+     * Push the images, and the build cache refs if the cache lives in the registry,
+     * in multi image mode the images are pushed concurrently
+     */
+    public void pushImages(BuilderContext context, List<Image> images) throws InterruptedException {
+        PushConfig pushConfig = getPushConfig();
+        if (pushConfig == null) {
+            context.log("docker push is not checked");
+            return;
+        }
+        if (!Boolean.TRUE.equals(pushConfig.getPushImage())) {
+            context.log("docker push image is skipped");
+            return;
+        }
+        if (!getMultiImage()) {
+            for (Image image : images) {
+                pushImage(context, image);
+            }
+            return;
+        }
+        runConcurrently(context, "push", images, this::pushImage);
+    }
+
+    private void runConcurrently(BuilderContext context, String action, List<Image> images,
+                                 ImageTask task) throws InterruptedException {
+        Map<String, Image> imagesByAppName = new LinkedHashMap<>();
+        Map<String, Callable<?>> branches = new LinkedHashMap<>();
+        for (Image image : images) {
+            imagesByAppName.put(image.getAppName(), image);
+            BuilderContext branchContext = context.fork("[" + image.getAppName() + "] ");
+            branches.put(image.getAppName(), () -> {
+                task.run(branchContext, image);
+                return null;
+            });
+        }
+
+        context.log("docker %s of %s images with parallelism %s", action, images.size(), getParallelism());
+        List<ParallelTasks.Result> results = ParallelTasks.run("docker-" + action, branches, getParallelism());
+
+        List<String> failedImages = new ArrayList<>();
+        Logger logger = context.getLogger();
+        logger.println("image " + action + " results:", false);
+        for (ParallelTasks.Result result : results) {
+            String status = result.isSuccess() ? "SUCCESS" : "FAILURE";
+            logger.println(String.format("  %-30s %-8s %6ss  %s", result.getName(), status,
+                    result.getDurationMillis() / 1000, imagesByAppName.get(result.getName()).getName()), false);
+            if (!result.isSuccess()) {
+                failedImages.add(result.getName());
+            }
+        }
+        if (!failedImages.isEmpty()) {
+            throw new IllegalStateException("failed to " + action + " images: " + failedImages);
+        }
+    }
+
+    /**
+     * Look up an earlier image built from the same inputs, it is retagged if it still exists on the build node,
+     * or used as is if it exists in the registry
+     */
+    private Image reuseUnchangedImage(BuilderContext context, Image image) throws Exception {
+        DockerClient dockerClient = new DockerClient(context);
+        Map<String, String> baseImageIds = getBaseImageIds(context, dockerClient, image.getDockerfile());
+        if (baseImageIds == null) {
+            return image;
+        }
+        String inputHash = context.getWorkspace().act(new ImageInputHash(image.getDockerfile(), getBuildArgs(), baseImageIds));
+        if (inputHash == null) {
+            context.log("inputs of %s can not be hashed, image will be built", image.getDockerfile());
+            return image;
+        }
+        Image hashedImage = image.withInputHash(inputHash);
+        String existingImage = ImageIndex.get(context.getBuild().getParent(), inputHash);
+        if (existingImage == null) {
+            return hashedImage;
+        }
+
+        if (dockerClient.imageExists(existingImage)) {
+            context.log("inputs of %s are unchanged, %s will be tagged as %s", image.getDockerfile(), existingImage, image.getName());
+            return hashedImage.retagFrom(existingImage);
+        }
+        if (isPushEnabled() && dockerClient.manifestExists(existingImage)) {
+            context.log("inputs of %s are unchanged, reuse %s from the registry", image.getDockerfile(), existingImage);
+            return hashedImage.reuse(existingImage);
+        }
+        return hashedImage;
+    }
+
+    /**
+     * The ids of the base images on the build node, the build pulls the missing ones so their content is not known
+     *
+     * @return null if a base image can not be resolved
+     */
+    @CheckForNull
+    private Map<String, String> getBaseImageIds(BuilderContext context, DockerClient dockerClient, String dockerfile) throws Exception {
+        List<String> baseImages = ImageInputHash.getBaseImages(context.getWorkspace().child(dockerfile).readToString());
+        if (baseImages == null) {
+            context.log("base images of %s are named by build arguments, image will be built", dockerfile);
+            return null;
+        }
+        Map<String, String> baseImageIds = new HashMap<>();
+        for (String baseImage : baseImages) {
+            String imageId = dockerClient.getImageId(baseImage);
+            if (imageId == null) {
+                context.log("base image %s of %s is not on the node, image will be built", baseImage, dockerfile);
+                return null;
+            }
+            baseImageIds.put(baseImage, imageId);
+        }
+        return baseImageIds;
+    }
+
+    private void buildImage(BuilderContext context, Image image) throws InterruptedException {
+        DockerClient dockerClient = new DockerClient(context);
+        if (image.isReused()) {
+            context.log("image %s is reused, skip docker build", image.getName());
+            return;
+        }
+        if (image.getSourceImage() != null) {
+            dockerClient.tag(image.getSourceImage(), image.getName());
+        } else {
+            List<String> options = new ArrayList<>();
+            for (String cacheRef : image.getCacheRefs()) {
+                options.add("--cache-from");
+                options.add(cacheRef);
+            }
+            options.addAll(getBuildArgs());
+            dockerClient.build(image.getName(), image.getDockerfile(), options);
+        }
+        if (image.getInputHash() != null) {
+            ImageIndex.put(context.getBuild().getParent(), image.getInputHash(), image.getName());
+        }
+    }
+
+    private List<String> getBuildArgs() {
+        if (CacheMode.valueOf(getCacheMode()) == CacheMode.NONE) {
+            return Collections.emptyList();
+        }
+        // embed the cache metadata into the image, so that the pushed image can be used as cache source
+        return Arrays.asList("--build-arg", "BUILDKIT_INLINE_CACHE=1");
+    }
+
+    /**
+     * The built images and the existing images they are tagged from
+     */
+    private List<String> getUsedImages(List<Image> images) {
+        Set<String> usedImages = new LinkedHashSet<>();
+        for (Image image : images) {
+            usedImages.add(image.getName());
+            if (image.getSourceImage() != null) {
+                usedImages.add(image.getSourceImage());
+            }
+        }
+        return new ArrayList<>(usedImages);
+    }
+
+    private boolean isPushEnabled() {
+        PushConfig pushConfig = getPushConfig();
+        return pushConfig != null && Boolean.TRUE.equals(pushConfig.getPushImage());
+    }
+
+    private void pushImage(BuilderContext context, Image image) throws InterruptedException {
+        if (image.isReused()) {
+            context.log("image %s already exists in the registry, skip docker push", image.getName());
+            return;
+        }
+        DockerClient dockerClient = new DockerClient(context);
+        dockerClient.push(image.getName());
+        if (CacheMode.valueOf(getCacheMode()) == CacheMode.REGISTRY) {
+            String cacheRef = getBuildCacheRef(image.getName());
+            dockerClient.tag(image.getName(), cacheRef);
+            dockerClient.push(cacheRef);
+        }
+    }
+
+    private List<String> getCacheRefs(Run<?, ?> build, String imageName) {
+        switch (CacheMode.valueOf(getCacheMode())) {
+            case REGISTRY:
+                return Collections.singletonList(getBuildCacheRef(imageName));
+            case PREVIOUS:
+                String previousImage = getPreviousImage(build, DockerClient.getRepository(imageName));
+                return previousImage == null ? Collections.emptyList() : Collections.singletonList(previousImage);
+            default:
+                return Collections.emptyList();
+        }
     }
 
     @Nullable
-    private String getFullImageName(EnvVars envVars, AbstractBuild<?, ?> build) {
+    private String getPreviousImage(Run<?, ?> build, String repository) {
+        Run<?, ?> previousBuild = build.getPreviousSuccessfulBuild();
+        if (previousBuild == null) {
+            return null;
+        }
+        BuiltImagesAction builtImages = previousBuild.getAction(BuiltImagesAction.class);
+        if (builtImages == null) {
+            return null;
+        }
+        return builtImages.getImage(repository);
+    }
+
+    private String getBuildCacheRef(String imageName) {
+        return DockerClient.getRepository(imageName) + ":" + BUILD_CACHE_TAG;
+    }
+
+    /**
+     * The configured Dockerfiles, or all the Dockerfiles of the workspace, the closest first
+     */
+    private List<String> getDockerfileList(BuilderContext context) throws Exception {
+        String[] configuredDockerfiles = StringUtils.split(getDockerfiles(), ",\n");
+        if (configuredDockerfiles == null || configuredDockerfiles.length == 0) {
+            RemoteFileLookup.Match dockerfiles = lookupFile(context, DockerConstants.DOCKERFILE, RemoteFileLookup.Read.NONE);
+            return dockerfiles == null ? Collections.emptyList() : dockerfiles.getRelativePaths();
+        }
+        FilePath workspace = context.getWorkspace();
+        List<String> dockerfileList = new ArrayList<>(configuredDockerfiles.length);
+        for (String configuredDockerfile : configuredDockerfiles) {
+            if (StringUtils.isNotBlank(configuredDockerfile)) {
+                dockerfileList.add(FileUtils.toRelativePath(workspace, new FilePath(workspace, configuredDockerfile.trim())));
+            }
+        }
+        dockerfileList.sort(Comparator.comparingInt(String::length));
+        return dockerfileList;
+    }
+
+    /**
+     * The image of a Dockerfile is named after its directory, the one at workspace root uses the app name
+     */
+    private String getImageAppName(EnvVars envVars, String dockerfileRelativePath) {
+        String directory = StringUtils.substringBeforeLast(dockerfileRelativePath.replace('\\', '/'), "/");
+        if (directory.equals(dockerfileRelativePath) || directory.isEmpty()) {
+            return envVars.get(DockerConstants.APP_NAME);
+        }
+        return StringUtils.substringAfterLast("/" + directory, "/").toLowerCase(Locale.ROOT);
+    }
+
+    private String getFullImageName(EnvVars envVars, Run<?, ?> build, String appName) {
         String registry = null;
         PushConfig pushConfig = getPushConfig();
         if (pushConfig != null) {
@@ -82,7 +443,6 @@ public class DockerConfig extends BuildConfig<DockerConfig> {
             throw new IllegalArgumentException("REGISTRY is null or empty");
         }
 
-        String appName = envVars.get(DockerConstants.APP_NAME);
         String version = envVars.get(DockerConstants.VERSION);
         int buildNumber = build.getNumber();
         return String.format("%s/%s:%s-%s", registry, appName, version, buildNumber);
@@ -91,6 +451,122 @@ public class DockerConfig extends BuildConfig<DockerConfig> {
     @Extension
     public static class DescriptorImpl extends Descriptor<DockerConfig> {
 
+        public ListBoxModel doFillCacheModeItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (CacheMode cacheMode : CacheMode.values()) {
+                items.add(cacheMode.getDisplayName(), cacheMode.name());
+            }
+            return items;
+        }
+
+    }
+
+    public enum CacheMode {
+
+        NONE("不使用缓存"),
+        PREVIOUS("使用上次成功构建的镜像"),
+        REGISTRY("使用镜像仓库中的 buildcache 镜像");
+
+        private final String displayName;
+
+        CacheMode(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+    }
+
+    public static class Image {
+
+        private final String appName;
+        private final String name;
+        private final String dockerfile;
+        private final List<String> cacheRefs;
+        private final String inputHash;
+        private final String sourceImage;
+        private final boolean reused;
+
+        public Image(String appName, String name, String dockerfile, List<String> cacheRefs) {
+            this(appName, name, dockerfile, cacheRefs, null, null, false);
+        }
+
+        private Image(String appName, String name, String dockerfile, List<String> cacheRefs,
+                      String inputHash, String sourceImage, boolean reused) {
+            this.appName = appName;
+            this.name = name;
+            this.dockerfile = dockerfile;
+            this.cacheRefs = cacheRefs;
+            this.inputHash = inputHash;
+            this.sourceImage = sourceImage;
+            this.reused = reused;
+        }
+
+        public Image withInputHash(String inputHash) {
+            return new Image(appName, name, dockerfile, cacheRefs, inputHash, sourceImage, reused);
+        }
+
+        /**
+         * Tag an existing local image instead of building
+         */
+        public Image retagFrom(String sourceImage) {
+            return new Image(appName, name, dockerfile, cacheRefs, inputHash, sourceImage, false);
+        }
+
+        /**
+         * Use an image which already exists in the registry, neither built nor pushed
+         */
+        public Image reuse(String existingImage) {
+            return new Image(appName, existingImage, dockerfile, cacheRefs, inputHash, existingImage, true);
+        }
+
+        public String getAppName() {
+            return appName;
+        }
+
+        /**
+         * The full image name, including registry and tag
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The Dockerfile path relative to the workspace
+         */
+        public String getDockerfile() {
+            return dockerfile;
+        }
+
+        /**
+         * The images to use as layer cache source
+         */
+        public List<String> getCacheRefs() {
+            return cacheRefs;
+        }
+
+        /**
+         * The hash of the build inputs, null if the image is not checked for reuse
+         */
+        @Nullable
+        public String getInputHash() {
+            return inputHash;
+        }
+
+        /**
+         * The existing image this image is tagged from or reuses
+         */
+        @Nullable
+        public String getSourceImage() {
+            return sourceImage;
+        }
+
+        public boolean isReused() {
+            return reused;
+        }
+
     }
 
     public static class PushConfig extends BuildConfig<PushConfig> {
@@ -113,18 +589,17 @@ public class DockerConfig extends BuildConfig<DockerConfig> {
         }
 
         @Override
-        public void doBuild() throws Exception {
+        public void doBuild(BuilderContext context) throws Exception {
             if (!getPushImage()) {
-                logger.println("docker push image is skipped");
+                context.getLogger().println("docker push image is skipped");
                 return;
             }
 
-            String imageName = envVars.get(DockerConstants.IMAGE);
+            String imageName = context.getEnvVar(DockerConstants.IMAGE);
             if (imageName == null) {
                 return;
             }
-            String command = String.format("docker push %s", imageName);
-            context.execute(command);
+            new DockerClient(context).push(imageName);
         }
 
         @Extension
@@ -135,4 +610,12 @@ public class DockerConfig extends BuildConfig<DockerConfig> {
 
     }
 
+
+    @FunctionalInterface
+    private interface ImageTask {
+
+        void run(BuilderContext context, Image image) throws Exception;
+
+    }
+
 }
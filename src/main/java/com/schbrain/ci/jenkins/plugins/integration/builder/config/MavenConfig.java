@@ -1,16 +1,29 @@
 package com.schbrain.ci.jenkins.plugins.integration.builder.config;
 
+import com.schbrain.ci.jenkins.plugins.integration.builder.BuilderContext;
+import com.schbrain.ci.jenkins.plugins.integration.builder.RetryPolicy;
+import com.schbrain.ci.jenkins.plugins.integration.builder.config.maven.MavenDaemon;
 import com.schbrain.ci.jenkins.plugins.integration.builder.constants.Constants.DockerConstants;
-import com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils;
-import hudson.EnvVars;
+import com.schbrain.ci.jenkins.plugins.integration.builder.maven.MavenParallelismAction;
+import com.schbrain.ci.jenkins.plugins.integration.builder.maven.MavenReactor;
+import com.schbrain.ci.jenkins.plugins.integration.builder.maven.ReactorReader;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.RemoteFileLookup;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.Extension;
-import hudson.FilePath;
 import hudson.Util;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
+import hudson.model.Run;
+import hudson.scm.ChangeLogSet;
+import jenkins.scm.RunWithSCM;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.springframework.lang.Nullable;
 
 import java.io.IOException;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 import static com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils.lookupFile;
 
@@ -21,14 +34,38 @@ import static com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils
 @SuppressWarnings("unused")
 public class MavenConfig extends BuildConfig<MavenConfig> {
 
+    /**
+     * The arguments selecting the modules or the pom, the modules are not selected again if one of them is present
+     */
+    private static final Set<String> MODULE_ARGUMENTS = new HashSet<>(Arrays.asList("-pl", "--projects", "-f", "--file"));
+
+    /**
+     * The arguments which are passed to the shell as they are
+     */
+    private static final Pattern SHELL_SAFE_ARGUMENT = Pattern.compile("[\\w.,/=:@+-]+");
+
     private final String mvnCommand;
 
     private final String javaHome;
 
+    private final Boolean buildChangedModulesOnly;
+
+    private final Boolean autoParallelism;
+
+    private final Integer maxThreads;
+
+    @Nullable
+    private final MavenDaemon mavenDaemon;
+
     @DataBoundConstructor
-    public MavenConfig(String mvnCommand, String javaHome) {
+    public MavenConfig(String mvnCommand, String javaHome, Boolean buildChangedModulesOnly,
+                       Boolean autoParallelism, Integer maxThreads, @Nullable MavenDaemon mavenDaemon) {
         this.mvnCommand = Util.fixNull(mvnCommand);
         this.javaHome = Util.fixNull(javaHome);
+        this.buildChangedModulesOnly = Util.fixNull(buildChangedModulesOnly, false);
+        this.autoParallelism = Util.fixNull(autoParallelism, false);
+        this.maxThreads = Util.fixNull(maxThreads, 0);
+        this.mavenDaemon = mavenDaemon;
     }
 
     public String getMvnCommand() {
@@ -39,32 +76,171 @@ public class MavenConfig extends BuildConfig<MavenConfig> {
         return javaHome;
     }
 
+    public Boolean getBuildChangedModulesOnly() {
+        return buildChangedModulesOnly;
+    }
+
+    public Boolean getAutoParallelism() {
+        return autoParallelism;
+    }
+
+    /**
+     * The cap of the threads chosen by the automatic parallelism, 0 for no cap
+     */
+    public Integer getMaxThreads() {
+        return Util.fixNull(maxThreads, 0);
+    }
+
+    @Nullable
+    public MavenDaemon getMavenDaemon() {
+        return mavenDaemon;
+    }
+
     @Override
-    public void doBuild() throws Exception {
+    public void doBuild(BuilderContext context) throws Exception {
         String mavenCommand = getMvnCommand();
         if (StringUtils.isBlank(mavenCommand)) {
-            logger.println("maven command is empty, skip maven build");
+            context.getLogger().println("maven command is empty, skip maven build");
             return;
         }
 
         String javaHome = getJavaHome();
         if (StringUtils.isNotBlank(javaHome)) {
-            envVars.put("JAVA_HOME", javaHome);
+            context.putEnvVar("JAVA_HOME", javaHome);
+        }
+
+        if (Boolean.TRUE.equals(getBuildChangedModulesOnly())) {
+            mavenCommand = selectChangedModules(context, mavenCommand);
+        }
+        if (Boolean.TRUE.equals(getAutoParallelism())) {
+            mavenCommand = tuneParallelism(context, mavenCommand);
+        }
+        MavenDaemon mavenDaemon = getMavenDaemon();
+        if (mavenDaemon != null) {
+            mavenCommand = mavenDaemon.prepare(context, mavenCommand, javaHome);
         }
 
-        context.execute(mavenCommand);
-        readDockerBuildInfo();
+        context.execute(mavenCommand, RetryPolicy.MAVEN);
+        readDockerBuildInfo(context);
+    }
+
+    /**
+     * Restrict the command to the modules changed since the last successful build and the modules depending on them
+     */
+    private String selectChangedModules(BuilderContext context, String mavenCommand) throws IOException, InterruptedException {
+        MavenReactor.Selection selection = getModuleSelection(context, mavenCommand);
+        if (selection.isFullBuild()) {
+            context.log("building the whole reactor, %s", selection.getReason());
+            return mavenCommand;
+        }
+        context.log("building the changed modules %s and their dependents", selection.getModules());
+        return appendArguments(mavenCommand, selection.toMavenArguments());
+    }
+
+    private MavenReactor.Selection getModuleSelection(BuilderContext context, String mavenCommand) throws IOException, InterruptedException {
+        String moduleArgument = findArgument(mavenCommand, MODULE_ARGUMENTS::contains);
+        if (moduleArgument != null) {
+            return MavenReactor.Selection.all("the command selects the modules with " + moduleArgument);
+        }
+        Set<String> changedPaths = getChangedPaths(context.getBuild());
+        if (changedPaths == null) {
+            return MavenReactor.Selection.all("no previous successful build");
+        }
+        if (changedPaths.isEmpty()) {
+            return MavenReactor.Selection.all("no scm change since the last successful build");
+        }
+        MavenReactor reactor = context.getWorkspace().act(new ReactorReader());
+        if (reactor == null) {
+            return MavenReactor.Selection.all("no pom.xml at the root of the workspace");
+        }
+        return reactor.select(changedPaths);
+    }
+
+    /**
+     * Add the threads and the surefire forks chosen from the cores of the node and its busy executors,
+     * the command is left alone if it sets the threads
+     */
+    private String tuneParallelism(BuilderContext context, String mavenCommand) throws IOException, InterruptedException {
+        String threadsArgument = findArgument(mavenCommand, argument -> argument.startsWith("-T") || argument.startsWith("--threads"));
+        if (threadsArgument != null) {
+            context.log("maven threads are set by the command with %s, parallelism is not tuned", threadsArgument);
+            return mavenCommand;
+        }
+        Computer computer = context.getComputer();
+        int busyExecutors = computer == null ? 1 : computer.countBusy();
+        int cores = context.getWorkspace().act(new MavenParallelismAction.AvailableProcessors());
+        MavenParallelismAction parallelism = MavenParallelismAction.decide(cores, busyExecutors, getMaxThreads());
+        context.getBuild().addOrReplaceAction(parallelism);
+        context.log("maven parallelism: %s", parallelism);
+
+        List<String> arguments = new ArrayList<>(Arrays.asList("-T", String.valueOf(parallelism.getThreads())));
+        if (findArgument(mavenCommand, argument -> argument.startsWith("-DforkCount=")) == null) {
+            arguments.add("-DforkCount=" + parallelism.getForkCount());
+        }
+        return appendArguments(mavenCommand, arguments);
+    }
+
+    /**
+     * Append the arguments to the command, quoted for the shell running it
+     */
+    public static String appendArguments(String command, List<String> arguments) {
+        StringBuilder result = new StringBuilder(command);
+        for (String argument : arguments) {
+            result.append(' ');
+            if (SHELL_SAFE_ARGUMENT.matcher(argument).matches()) {
+                result.append(argument);
+            } else {
+                result.append('\'').append(argument.replace("'", "'\\''")).append('\'');
+            }
+        }
+        return result.toString();
+    }
+
+    @CheckForNull
+    private static String findArgument(String command, Predicate<String> predicate) {
+        for (String argument : StringUtils.split(command)) {
+            if (predicate.test(argument)) {
+                return argument;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The paths changed by the builds since the last successful one, so the modules of the failed builds are rebuilt
+     *
+     * @return null if there is no successful build, or if a build does not record its changes
+     */
+    @CheckForNull
+    private Set<String> getChangedPaths(Run<?, ?> build) {
+        Run<?, ?> lastSuccessfulBuild = build.getPreviousSuccessfulBuild();
+        if (lastSuccessfulBuild == null) {
+            return null;
+        }
+        Set<String> changedPaths = new TreeSet<>();
+        for (Run<?, ?> current = build; current != null && current.getNumber() > lastSuccessfulBuild.getNumber(); current = current.getPreviousBuild()) {
+            // both the freestyle and the pipeline builds record their changes
+            if (!(current instanceof RunWithSCM)) {
+                return null;
+            }
+            for (ChangeLogSet<? extends ChangeLogSet.Entry> changeSet : ((RunWithSCM<?, ?>) current).getChangeSets()) {
+                for (ChangeLogSet.Entry entry : changeSet) {
+                    changedPaths.addAll(entry.getAffectedPaths());
+                }
+            }
+        }
+        return changedPaths;
     }
 
-    private void readDockerBuildInfo() throws IOException, InterruptedException {
-        EnvVars envVars = context.getEnvVars();
-        FilePath dockerBuildInfo = lookupFile(context, DockerConstants.BUILD_INFO_FILE_NAME);
-        if (dockerBuildInfo == null) {
+    private void readDockerBuildInfo(BuilderContext context) throws IOException, InterruptedException {
+        // found and parsed on the build node in a single call
+        RemoteFileLookup.Match dockerBuildInfo = lookupFile(context, DockerConstants.BUILD_INFO_FILE_NAME, RemoteFileLookup.Read.PROPERTIES);
+        if (dockerBuildInfo == null || dockerBuildInfo.getProperties() == null) {
             context.log("%s file not exist, skip docker build", DockerConstants.BUILD_INFO_FILE_NAME);
             return;
         }
         // overwriting existing environment variables is not allowed
-        FileUtils.filePathToMap(dockerBuildInfo).forEach(envVars::putIfAbsent);
+        context.putEnvVarsIfAbsent(dockerBuildInfo.getProperties());
     }
 
     @Extension
@@ -0,0 +1,85 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.config.deploy;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.CompiledTemplate;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.TemplateUtils;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Render the deploy template into the deploy file on the build node, invoked on the directory of the template.
+ * <p>
+ * Only a summary of the rendered file is sent back: its length, its head and the unresolved placeholders.
+ *
+ * @author liaozan
+ * @since 2022/3/8
+ */
+public class DeployFileRenderer extends MasterToSlaveFileCallable<DeployFileRenderer.Result> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String templateFileName;
+    private final String deployFileName;
+    private final TreeMap<String, String> variables;
+    private final int headLength;
+
+    /**
+     * @param headLength how many characters of the rendered file are sent back
+     */
+    public DeployFileRenderer(String templateFileName, String deployFileName, Map<String, String> variables, int headLength) {
+        this.templateFileName = templateFileName;
+        this.deployFileName = deployFileName;
+        this.variables = new TreeMap<>(variables);
+        this.headLength = headLength;
+    }
+
+    @Override
+    public Result invoke(File directory, VirtualChannel channel) throws IOException {
+        Path templateFile = directory.toPath().resolve(templateFileName);
+        if (!Files.isRegularFile(templateFile)) {
+            throw new IOException("deploy template not found: " + templateFile);
+        }
+        String templateContent = new String(Files.readAllBytes(templateFile), StandardCharsets.UTF_8);
+        CompiledTemplate.Result result = TemplateUtils.render(templateContent, variables);
+        String content = result.getContent();
+        Files.write(directory.toPath().resolve(deployFileName), content.getBytes(StandardCharsets.UTF_8));
+        String head = content.length() <= headLength ? content : content.substring(0, headLength);
+        return new Result(content.length(), head, result.getUnresolvedPlaceholders());
+    }
+
+    public static class Result implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int length;
+        private final String head;
+        private final TreeSet<String> unresolvedPlaceholders;
+
+        private Result(int length, String head, Set<String> unresolvedPlaceholders) {
+            this.length = length;
+            this.head = head;
+            this.unresolvedPlaceholders = new TreeSet<>(unresolvedPlaceholders);
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public String getHead() {
+            return head;
+        }
+
+        public Set<String> getUnresolvedPlaceholders() {
+            return Collections.unmodifiableSet(unresolvedPlaceholders);
+        }
+
+    }
+
+}
@@ -7,6 +7,7 @@ import hudson.model.Descriptor;
 import jenkins.model.Jenkins;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author zhangdd on 2022/1/20
@@ -15,6 +16,15 @@ public abstract class DeployStyleRadio implements Describable<DeployStyleRadio>
 
     public abstract String getDeployFileLocation(BuilderContext builderContext, List<Entry> entries) throws Exception;
 
+    /**
+     * Resolve the deploy file of a deploy target, the styles which do not render a template ignore the variables
+     *
+     * @param variables the variables of the target, override the build variables and the entries
+     */
+    public String getDeployFileLocation(BuilderContext builderContext, List<Entry> entries, Map<String, String> variables) throws Exception {
+        return getDeployFileLocation(builderContext, entries);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public Descriptor<DeployStyleRadio> getDescriptor() {
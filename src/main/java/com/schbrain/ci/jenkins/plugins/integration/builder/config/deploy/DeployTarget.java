@@ -0,0 +1,89 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.config.deploy;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.config.entry.Entry;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A cluster and namespace the deploy file is applied to
+ *
+ * @author liaozan
+ * @since 2022/3/1
+ */
+@SuppressWarnings("unused")
+public class DeployTarget extends AbstractDescribableImpl<DeployTarget> {
+
+    public static final String NAMESPACE = "NAMESPACE";
+
+    private final String name;
+    private final String configLocation;
+    private final String namespace;
+    private final List<Entry> entries;
+
+    @DataBoundConstructor
+    public DeployTarget(String name, String configLocation, String namespace, List<Entry> entries) {
+        this.name = Util.fixNull(name);
+        this.configLocation = Util.fixNull(configLocation);
+        this.namespace = Util.fixNull(namespace);
+        this.entries = Util.fixNull(entries);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The kubeconfig of the cluster, the default one of kubectl if blank
+     */
+    public String getConfigLocation() {
+        return configLocation;
+    }
+
+    /**
+     * Overrides the namespace of the deploy template if not blank
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * Applied after the entries of the deploy config
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * The variables this target renders the deploy template with, in addition to the ones of the build,
+     * the targets with the same variables share the rendered deploy file
+     */
+    public Map<String, String> getVariables() {
+        Map<String, String> variables = new TreeMap<>();
+        if (StringUtils.isNotBlank(getNamespace())) {
+            variables.put(NAMESPACE, getNamespace());
+        }
+        for (Entry entry : getEntries()) {
+            entry.contribute(variables);
+        }
+        return variables;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<DeployTarget> {
+
+        @Override
+        public String getDisplayName() {
+            return "部署目标";
+        }
+
+    }
+
+}
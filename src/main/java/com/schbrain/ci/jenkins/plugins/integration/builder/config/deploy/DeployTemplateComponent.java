@@ -4,17 +4,18 @@ import com.schbrain.ci.jenkins.plugins.integration.builder.BuilderContext;
 import com.schbrain.ci.jenkins.plugins.integration.builder.config.entry.Entry;
 import com.schbrain.ci.jenkins.plugins.integration.builder.constants.Constants;
 import com.schbrain.ci.jenkins.plugins.integration.builder.constants.Constants.DeployConstants;
-import com.schbrain.ci.jenkins.plugins.integration.builder.util.TemplateUtils;
 import hudson.EnvVars;
 import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.springframework.util.CollectionUtils;
 
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * @author zhangdd on 2022/1/20
@@ -46,26 +47,41 @@ public class DeployTemplateComponent extends DeployStyleRadio {
 
     @Override
     public String getDeployFileLocation(BuilderContext context, List<Entry> entries) throws Exception {
-        Path templateFile = getDeployTemplate(context);
-        Path deployFile = Paths.get(templateFile.getParent().toString(), DeployConstants.DEPLOY_FILE_NAME);
-        resolveDeployFilePlaceholder(templateFile, deployFile, entries, context);
-        return deployFile.toString();
+        return getDeployFileLocation(context, entries, Collections.emptyMap());
     }
 
-    private Path getDeployTemplate(BuilderContext context) {
-        String buildScriptDirectory = context.getEnvVars().get(Constants.DockerConstants.BUILD_SCRIPT);
-        return Paths.get(buildScriptDirectory, DeployConstants.TEMPLATE_FILE_NAME);
+    @Override
+    public String getDeployFileLocation(BuilderContext context, List<Entry> entries, Map<String, String> variables) throws Exception {
+        FilePath buildScriptDirectory = getBuildScriptDirectory(context);
+        FilePath deployFile = buildScriptDirectory.child(getDeployFileName(variables));
+        resolveDeployFilePlaceholder(buildScriptDirectory, deployFile, entries, variables, context);
+        return deployFile.getRemote();
     }
 
-    private void resolveDeployFilePlaceholder(Path templateFile, Path deployFile,
-                                              List<Entry> entries, BuilderContext context) throws Exception {
-        if (templateFile == null) {
-            return;
-        }
-        if (Files.notExists(deployFile)) {
-            Files.createFile(deployFile);
+    /**
+     * Each distinct set of target variables gets its own deploy file
+     */
+    private String getDeployFileName(Map<String, String> variables) {
+        if (variables.isEmpty()) {
+            return DeployConstants.DEPLOY_FILE_NAME;
         }
+        String digest = Util.getDigestOf(new TreeMap<>(variables).toString()).substring(0, 8);
+        String baseName = StringUtils.substringBeforeLast(DeployConstants.DEPLOY_FILE_NAME, ".");
+        String extension = StringUtils.substringAfterLast(DeployConstants.DEPLOY_FILE_NAME, ".");
+        return baseName + "-" + digest + "." + extension;
+    }
 
+    /**
+     * The directory of the deploy template, on the build node
+     */
+    private FilePath getBuildScriptDirectory(BuilderContext context) {
+        String buildScriptDirectory = context.getEnvVar(Constants.DockerConstants.BUILD_SCRIPT);
+        return new FilePath(context.getWorkspace(), buildScriptDirectory);
+    }
+
+    private void resolveDeployFilePlaceholder(FilePath buildScriptDirectory, FilePath deployFile, List<Entry> entries,
+                                              Map<String, String> variables, BuilderContext context) throws Exception {
+        // a copy, the variables of the build are not changed by the rendering
         EnvVars envVars = context.getEnvVars();
         envVars.put("NAMESPACE", getNamespace());
         envVars.put("PORT", getPort());
@@ -76,10 +92,15 @@ public class DeployTemplateComponent extends DeployStyleRadio {
                 entry.contribute(envVars);
             }
         }
-        String templateContent = new String(Files.readAllBytes(templateFile), StandardCharsets.UTF_8);
-        String data = TemplateUtils.format(templateContent, envVars);
-        context.getLogger().println("resolved k8sDeployFile :\n" + data, false);
-        Files.write(deployFile, data.getBytes(StandardCharsets.UTF_8));
+        envVars.putAll(variables);
+        // rendered on the build node, only a summary of the deploy file comes back
+        DeployFileRenderer renderer = new DeployFileRenderer(DeployConstants.TEMPLATE_FILE_NAME, deployFile.getName(),
+                envVars, context.getLogger().getDumpLimit());
+        DeployFileRenderer.Result result = buildScriptDirectory.act(renderer);
+        if (!result.getUnresolvedPlaceholders().isEmpty()) {
+            context.log("unresolved placeholders in k8sDeployFile: %s", result.getUnresolvedPlaceholders());
+        }
+        context.dump("resolved k8sDeployFile", deployFile, result.getHead(), result.getLength());
     }
 
     @Extension
@@ -0,0 +1,148 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.config.maven;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.BuilderContext;
+import com.schbrain.ci.jenkins.plugins.integration.builder.config.MavenConfig;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.model.Executor;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.util.ArgumentListBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Run the maven builds on a long-lived <a href="https://github.com/apache/maven-mvnd">mvnd</a> daemon.
+ * <p>
+ * Each executor of a node has its own daemons, each workspace in a pipeline which does not run on an executor,
+ * kept under the node root directory and keyed by the java home and the mvnd executable. They are stopped after a number of builds, mvnd itself stops the daemons under heap pressure.
+ *
+ * @author liaozan
+ * @since 2022/3/7
+ */
+@SuppressWarnings("unused")
+public class MavenDaemon extends AbstractDescribableImpl<MavenDaemon> {
+
+    private static final String DEFAULT_EXECUTABLE = "mvnd";
+    private static final int DEFAULT_RECYCLE_BUILDS = 50;
+    private static final String STORAGE_DIRECTORY = "mvnd";
+    private static final String BUILD_COUNT_FILE_NAME = "integration-build-count";
+
+    private final String executable;
+    private final Integer threads;
+    private final Integer recycleBuilds;
+
+    @DataBoundConstructor
+    public MavenDaemon(String executable, Integer threads, Integer recycleBuilds) {
+        this.executable = StringUtils.defaultIfBlank(executable, DEFAULT_EXECUTABLE);
+        this.threads = Util.fixNull(threads, 0);
+        this.recycleBuilds = Util.fixNull(recycleBuilds, DEFAULT_RECYCLE_BUILDS);
+    }
+
+    public String getExecutable() {
+        return StringUtils.defaultIfBlank(executable, DEFAULT_EXECUTABLE);
+    }
+
+    /**
+     * The builder threads of the daemon, 0 to let mvnd decide
+     */
+    public Integer getThreads() {
+        return Util.fixNull(threads, 0);
+    }
+
+    /**
+     * The daemons of an executor are stopped after this number of builds, 0 to never stop them
+     */
+    public Integer getRecycleBuilds() {
+        return Util.fixNull(recycleBuilds, DEFAULT_RECYCLE_BUILDS);
+    }
+
+    /**
+     * Rewrite the maven command to run on the daemons of the current executor, the daemons are stopped first if they ran enough builds
+     *
+     * @param javaHome the java home of the build, the one of the node if blank
+     * @return the rewritten command, the given command if it does not start with mvn
+     */
+    public String prepare(BuilderContext context, String mavenCommand, String javaHome) throws IOException, InterruptedException {
+        String command = mavenCommand.trim();
+        String mavenExecutable = StringUtils.substringBefore(command, " ");
+        if (!mavenExecutable.equals("mvn") && !mavenExecutable.endsWith("/mvn")) {
+            context.log("maven command does not start with mvn, the maven daemon is not used");
+            return mavenCommand;
+        }
+        FilePath storage = getDaemonStorage(context, javaHome);
+        if (storage == null) {
+            context.log("the node of the build is offline, the maven daemon is not used");
+            return mavenCommand;
+        }
+        recycleIfNeeded(context, storage);
+
+        List<String> daemonArguments = new ArrayList<>();
+        daemonArguments.add("-Dmvnd.daemonStorage=" + storage.getRemote());
+        if (StringUtils.isNotBlank(javaHome)) {
+            daemonArguments.add("-Dmvnd.javaHome=" + javaHome);
+        }
+        if (getThreads() > 0) {
+            daemonArguments.add("-Dmvnd.threads=" + getThreads());
+        }
+        return MavenConfig.appendArguments(getExecutable(), daemonArguments) + command.substring(mavenExecutable.length());
+    }
+
+    @CheckForNull
+    private FilePath getDaemonStorage(BuilderContext context, String javaHome) {
+        Computer computer = context.getComputer();
+        Node node = computer == null ? null : computer.getNode();
+        FilePath rootPath = node == null ? null : node.getRootPath();
+        if (rootPath == null) {
+            return null;
+        }
+        String key = Util.getDigestOf(Util.fixNull(javaHome) + "\n" + getExecutable()).substring(0, 8);
+        return rootPath.child(STORAGE_DIRECTORY).child(key).child(getDaemonSlot(context));
+    }
+
+    /**
+     * The executor of a freestyle build, the workspace of a pipeline step, both are used by one build at a time
+     */
+    private String getDaemonSlot(BuilderContext context) {
+        Run<?, ?> build = context.getBuild();
+        if (build instanceof AbstractBuild) {
+            Executor executor = build.getExecutor();
+            return "executor-" + (executor == null ? 0 : executor.getNumber());
+        }
+        return "workspace-" + Util.getDigestOf(context.getWorkspace().getRemote()).substring(0, 8);
+    }
+
+    private void recycleIfNeeded(BuilderContext context, FilePath storage) throws IOException, InterruptedException {
+        // a slot is used by one build at a time, the count is not updated concurrently
+        FilePath buildCountFile = storage.child(BUILD_COUNT_FILE_NAME);
+        int buildCount = buildCountFile.exists() ? NumberUtils.toInt(buildCountFile.readToString().trim()) : 0;
+        if (getRecycleBuilds() > 0 && buildCount >= getRecycleBuilds()) {
+            context.log("maven daemon has run %s builds, stopping it", buildCount);
+            ArgumentListBuilder stopCommand = new ArgumentListBuilder(getExecutable(), "--stop", "-Dmvnd.daemonStorage=" + storage.getRemote());
+            int exitCode = context.launch(stopCommand, null);
+            if (exitCode != 0) {
+                context.log("stopping the maven daemon failed with exit code %s", exitCode);
+            }
+            buildCount = 0;
+        }
+        buildCountFile.write(String.valueOf(buildCount + 1), StandardCharsets.UTF_8.name());
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<MavenDaemon> {
+
+    }
+
+}
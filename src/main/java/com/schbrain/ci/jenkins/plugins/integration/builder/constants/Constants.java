@@ -8,7 +8,7 @@ public class Constants {
     public static class DeployConstants {
 
         public static final String TEMPLATE_URL = "http://gitlab.schbrain.com/gitlab/tools/build-script/-/raw/main/k8s-deploy-template.yaml";
-        public static final String TEMPLATE_FILE_NAME = TEMPLATE_URL.substring(TEMPLATE_URL.lastIndexOf("/"));
+        public static final String TEMPLATE_FILE_NAME = TEMPLATE_URL.substring(TEMPLATE_URL.lastIndexOf("/") + 1);
         public static final String DEPLOY_FILE_NAME = "deploy.yaml";
 
     }
@@ -17,6 +17,9 @@ public class Constants {
 
         public static final String BUILD_INFO_FILE_NAME = "dockerBuildInfo";
         public static final String IMAGE = "IMAGE";
+        public static final String IMAGES = "IMAGES";
+        public static final String DOCKERFILE = "Dockerfile";
+        public static final String DOCKER_BUILDKIT = "DOCKER_BUILDKIT";
         public static final String REGISTRY = "REGISTRY";
         public static final String APP_NAME = "APP_NAME";
         public static final String VERSION = "VERSION";
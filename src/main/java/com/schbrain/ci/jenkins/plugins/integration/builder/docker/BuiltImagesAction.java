@@ -0,0 +1,41 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.docker;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.InvisibleAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the images built by a build, so that later builds can use them as cache source
+ *
+ * @author liaozan
+ * @since 2022/2/23
+ */
+public class BuiltImagesAction extends InvisibleAction {
+
+    private final List<String> images;
+
+    public BuiltImagesAction(List<String> images) {
+        this.images = new ArrayList<>(images);
+    }
+
+    public List<String> getImages() {
+        return Collections.unmodifiableList(images);
+    }
+
+    /**
+     * The image built for the repository, i.e. the image name without tag
+     */
+    @CheckForNull
+    public String getImage(String repository) {
+        for (String image : images) {
+            if (DockerClient.getRepository(image).equals(repository)) {
+                return image;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.docker;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.BuilderContext;
+import com.schbrain.ci.jenkins.plugins.integration.builder.RetryPolicy;
+import com.schbrain.ci.jenkins.plugins.integration.builder.metrics.StageMetrics;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.util.ArgumentListBuilder;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Run docker commands on the build node.
+ * <p>
+ * The docker cli is launched directly, without a shell script in between, and its output is parsed into {@link DockerProgress}.
+ *
+ * @author liaozan
+ * @since 2022/2/21
+ */
+public class DockerClient {
+
+    private final BuilderContext context;
+
+    public DockerClient(BuilderContext context) {
+        this.context = context;
+    }
+
+    public DockerProgress build(String imageName, String dockerfile) throws InterruptedException {
+        return build(imageName, dockerfile, Collections.emptyList());
+    }
+
+    /**
+     * Build the image with the workspace as build context
+     *
+     * @param options additional options of docker build
+     */
+    public DockerProgress build(String imageName, String dockerfile, List<String> options) throws InterruptedException {
+        ArgumentListBuilder command = docker("build").add("-t", imageName).add("-f", dockerfile).add(options).add(".");
+        DockerProgress progress = new DockerProgress();
+        // base image pulls are the only transient part of a build
+        context.execute(command, () -> progress.newAttempt(context.getListener().getLogger()), RetryPolicy.DOCKER_REGISTRY);
+        context.log("docker build %s finished: %s", imageName, progress.describeBuild());
+        if (progress.getContextSize() != null) {
+            StageMetrics.current().recordContextBytes(DockerProgress.parseSize(progress.getContextSize()));
+        }
+        return progress;
+    }
+
+    public DockerProgress push(String imageName) throws InterruptedException {
+        ArgumentListBuilder command = docker("push").add(imageName);
+        DockerProgress progress = new DockerProgress();
+        context.execute(command, () -> progress.newAttempt(context.getListener().getLogger()), RetryPolicy.DOCKER_REGISTRY);
+        context.log("docker push %s finished: %s", imageName, progress.describePush());
+        StageMetrics.current().recordPushedLayers(progress.getPushedLayers());
+        return progress;
+    }
+
+    /**
+     * Whether the image exists on the build node
+     */
+    public boolean imageExists(String imageName) throws IOException, InterruptedException {
+        return context.launch(docker("image").add("inspect", imageName), new ByteArrayOutputStream()) == 0;
+    }
+
+    /**
+     * The id of the image on the build node
+     *
+     * @return null if the image is not on the build node
+     */
+    @CheckForNull
+    public String getImageId(String imageName) throws IOException, InterruptedException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (context.launch(docker("image").add("inspect", "--format", "{{.Id}}", imageName), output) != 0) {
+            return null;
+        }
+        return StringUtils.trimToNull(output.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    /**
+     * Whether the image exists in the registry
+     */
+    public boolean manifestExists(String imageName) throws IOException, InterruptedException {
+        return context.launch(docker("manifest").add("inspect", imageName), new ByteArrayOutputStream()) == 0;
+    }
+
+    public void tag(String sourceImage, String targetImage) throws InterruptedException {
+        context.execute(docker("tag").add(sourceImage, targetImage), null, RetryPolicy.NEVER);
+    }
+
+
+    /**
+     * The image name without tag, e.g. registry:5000/app for registry:5000/app:1.0
+     */
+    public static String getRepository(String imageName) {
+        int tagIndex = imageName.lastIndexOf(':');
+        if (tagIndex < 0 || tagIndex < imageName.lastIndexOf('/')) {
+            return imageName;
+        }
+        return imageName.substring(0, tagIndex);
+    }
+
+    private static ArgumentListBuilder docker(String command) {
+        return new ArgumentListBuilder("docker", command);
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.docker;
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Progress of a docker build or push, parsed from the output of the docker cli.
+ * <p>
+ * Both the classic builder and the plain BuildKit output are understood.
+ *
+ * @author liaozan
+ * @since 2022/2/21
+ */
+public class DockerProgress {
+
+    private static final Pattern CLASSIC_STEP = Pattern.compile("^Step \\d+/\\d+ : .*");
+    private static final Pattern CLASSIC_CACHED = Pattern.compile("^ ---> Using cache$");
+    private static final Pattern CLASSIC_CONTEXT = Pattern.compile("^Sending build context to Docker daemon\\s+(\\S+)");
+    private static final Pattern BUILDKIT_STEP = Pattern.compile("^#(\\d+) \\[[^\\]]*\\d+/\\d+] .*");
+    private static final Pattern BUILDKIT_CACHED = Pattern.compile("^#(\\d+) CACHED$");
+    private static final Pattern BUILDKIT_CONTEXT = Pattern.compile("^#\\d+ transferring context: (\\S+)");
+    private static final Pattern PUSH_PUSHED = Pattern.compile("^\\w+: Pushed$");
+    private static final Pattern PUSH_EXISTING = Pattern.compile("^\\w+: (Layer already exists|Mounted from .*)$");
+    private static final Pattern SIZE = Pattern.compile("([\\d.]+)\\s*([kKMGT]?)B");
+    private static final Pattern PUSH_DIGEST = Pattern.compile(".*digest: (sha256:[0-9a-f]+) size: (\\d+).*");
+
+    private final Set<String> buildKitSteps = new HashSet<>();
+    private final Set<String> buildKitCachedSteps = new HashSet<>();
+
+    private int steps;
+    private int cachedSteps;
+    private String contextSize;
+    private int pushedLayers;
+    private int existingLayers;
+    private String digest;
+    private long manifestSize;
+
+    /**
+     * Start parsing the output of a new attempt, the previous attempts are forgotten
+     *
+     * @param out where the output is forwarded to
+     * @return the stream to give to the docker process
+     */
+    public synchronized OutputStream newAttempt(OutputStream out) {
+        buildKitSteps.clear();
+        buildKitCachedSteps.clear();
+        steps = 0;
+        cachedSteps = 0;
+        contextSize = null;
+        pushedLayers = 0;
+        existingLayers = 0;
+        digest = null;
+        manifestSize = 0;
+        return new ParsingOutputStream(out);
+    }
+
+    synchronized void parse(String line) {
+        Matcher matcher;
+        if (CLASSIC_STEP.matcher(line).matches()) {
+            steps++;
+        } else if (CLASSIC_CACHED.matcher(line).matches()) {
+            cachedSteps++;
+        } else if ((matcher = BUILDKIT_STEP.matcher(line)).matches()) {
+            buildKitSteps.add(matcher.group(1));
+        } else if ((matcher = BUILDKIT_CACHED.matcher(line)).matches()) {
+            buildKitCachedSteps.add(matcher.group(1));
+        } else if ((matcher = CLASSIC_CONTEXT.matcher(line)).find()) {
+            contextSize = matcher.group(1);
+        } else if ((matcher = BUILDKIT_CONTEXT.matcher(line)).find()) {
+            contextSize = matcher.group(1);
+        } else if (PUSH_PUSHED.matcher(line).matches()) {
+            pushedLayers++;
+        } else if (PUSH_EXISTING.matcher(line).matches()) {
+            existingLayers++;
+        } else if ((matcher = PUSH_DIGEST.matcher(line)).matches()) {
+            digest = matcher.group(1);
+            manifestSize = Long.parseLong(matcher.group(2));
+        }
+    }
+
+    public synchronized int getSteps() {
+        return steps + buildKitSteps.size();
+    }
+
+    public synchronized int getCachedSteps() {
+        int cachedBuildKitSteps = 0;
+        for (String step : buildKitCachedSteps) {
+            if (buildKitSteps.contains(step)) {
+                cachedBuildKitSteps++;
+            }
+        }
+        return cachedSteps + cachedBuildKitSteps;
+    }
+
+    /**
+     * The size of the build context as printed by docker, e.g. 12.5MB
+     */
+    public synchronized String getContextSize() {
+        return contextSize;
+    }
+
+    public synchronized int getPushedLayers() {
+        return pushedLayers;
+    }
+
+    public synchronized int getExistingLayers() {
+        return existingLayers;
+    }
+
+    public synchronized String getDigest() {
+        return digest;
+    }
+
+    public synchronized long getManifestSize() {
+        return manifestSize;
+    }
+
+    /**
+     * The ratio of the steps served from the layer cache, 0 if no step is recognized
+     */
+    public double getCacheHitRatio() {
+        int steps = getSteps();
+        return steps == 0 ? 0 : (double) getCachedSteps() / steps;
+    }
+
+    /**
+     * Parse the human readable sizes of the docker cli, e.g. 1.2GB, 512MB, 0B
+     */
+    public static long parseSize(String size) {
+        Matcher matcher = SIZE.matcher(size.trim());
+        if (!matcher.find()) {
+            return 0;
+        }
+        double value = Double.parseDouble(matcher.group(1));
+        String unit = matcher.group(2).toUpperCase(Locale.ROOT);
+        int exponent = unit.isEmpty() ? 0 : "KMGT".indexOf(unit) + 1;
+        return (long) (value * Math.pow(1000, exponent));
+    }
+
+    public String describeBuild() {
+        return String.format("%s steps, %s cached (cache hit ratio %.0f%%), build context %s",
+                getSteps(), getCachedSteps(), getCacheHitRatio() * 100, getContextSize());
+    }
+
+    public String describePush() {
+        return String.format("%s layers pushed, %s layers already exist, digest %s", getPushedLayers(), getExistingLayers(), getDigest());
+    }
+
+    private class ParsingOutputStream extends LineTransformationOutputStream.Delegating {
+
+        ParsingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            out.write(b, 0, len);
+            parse(trimEOL(new String(b, 0, len, StandardCharsets.UTF_8)));
+        }
+
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.docker;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+/**
+ * Removes the images created by this plugin once the images of a node exceed the disk budget, the least recently used first.
+ * <p>
+ * Only the images recorded through {@link #submit} are ever removed, so base images and their layers stay on the node.
+ * Collections run one at a time on a background thread, after the build has completed.
+ *
+ * @author liaozan
+ * @since 2022/2/26
+ */
+public class ImageGarbageCollector {
+
+    private static final java.util.logging.Logger LOGGER = java.util.logging.Logger.getLogger(ImageGarbageCollector.class.getName());
+    private static final ImageGarbageCollector INSTANCE = new ImageGarbageCollector();
+
+    private static final String STATE_FILE_NAME = "integration-image-gc.properties";
+    private static final String KEY_SEPARATOR = "|";
+
+    private final ExecutorService queue = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "integration-image-gc");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Last use time of the recorded images, keyed by node name and image name
+     */
+    private Map<String, Long> lastUsed;
+
+    public static ImageGarbageCollector get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record the images used on the node and collect the node in the background
+     *
+     * @param budgetBytes the disk space the images of the node may use, 0 to only remove the expired images
+     */
+    public void submit(Node node, Collection<String> usedImages, Collection<String> expiredImages, long budgetBytes) {
+        String nodeName = node.getNodeName();
+        queue.submit(() -> {
+            try {
+                collect(node, nodeName, usedImages, expiredImages, budgetBytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "failed to collect images of node " + nodeName, e);
+            }
+        });
+    }
+
+    private void collect(Node node, String nodeName, Collection<String> usedImages, Collection<String> expiredImages, long budgetBytes)
+            throws IOException, InterruptedException {
+        Map<String, Long> lastUsed = getLastUsed();
+        long now = System.currentTimeMillis();
+        for (String image : usedImages) {
+            lastUsed.put(nodeName + KEY_SEPARATOR + image, now);
+        }
+
+        Computer computer = node.toComputer();
+        if (computer == null || computer.getChannel() == null) {
+            // node is offline, the images are collected with the next build on it
+            saveLastUsed();
+            return;
+        }
+        Launcher launcher = node.createLauncher(TaskListener.NULL);
+
+        for (String image : expiredImages) {
+            removeImage(launcher, nodeName, image);
+        }
+        if (budgetBytes > 0) {
+            List<String> candidates = getLeastRecentlyUsed(nodeName, usedImages);
+            long usedBytes = getImagesDiskUsage(launcher);
+            Iterator<String> iterator = candidates.iterator();
+            while (usedBytes > budgetBytes && iterator.hasNext()) {
+                String image = iterator.next();
+                if (removeImage(launcher, nodeName, image)) {
+                    usedBytes = getImagesDiskUsage(launcher);
+                }
+            }
+            if (usedBytes > budgetBytes) {
+                LOGGER.info(String.format("images of node %s still use %s bytes, over the budget of %s bytes", nodeName, usedBytes, budgetBytes));
+            }
+        }
+        saveLastUsed();
+    }
+
+    /**
+     * The recorded images of the node, the least recently used first, excluding the ones used by the current build
+     */
+    private List<String> getLeastRecentlyUsed(String nodeName, Collection<String> usedImages) {
+        String prefix = nodeName + KEY_SEPARATOR;
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : lastUsed.entrySet()) {
+            if (entry.getKey().startsWith(prefix) && !usedImages.contains(entry.getKey().substring(prefix.length()))) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Map.Entry.comparingByValue());
+        List<String> images = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            images.add(entry.getKey().substring(prefix.length()));
+        }
+        return images;
+    }
+
+    /**
+     * Remove the image and its record, the record is kept if the image could not be removed so that a later collection retries it
+     *
+     * @return true if the image was removed, i.e. the disk usage may have changed
+     */
+    private boolean removeImage(Launcher launcher, String nodeName, String image) throws IOException, InterruptedException {
+        // without force, an image used by a container is kept.
+        // rmi also deletes the untagged parent layers, the layers shared with other images are kept
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int exitCode = run(launcher, new ArgumentListBuilder("docker", "rmi", image), output);
+        if (exitCode == 0) {
+            LOGGER.fine(String.format("removed image %s of node %s", image, nodeName));
+            lastUsed.remove(nodeName + KEY_SEPARATOR + image);
+            return true;
+        }
+        String message = output.toString(StandardCharsets.UTF_8.name()).trim();
+        if (message.contains("No such image")) {
+            // already removed by someone else
+            lastUsed.remove(nodeName + KEY_SEPARATOR + image);
+        } else {
+            LOGGER.fine(String.format("failed to remove image %s of node %s, exit code %s: %s", image, nodeName, exitCode, message));
+        }
+        return false;
+    }
+
+    private long getImagesDiskUsage(Launcher launcher) throws IOException, InterruptedException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int exitCode = run(launcher, new ArgumentListBuilder("docker", "system", "df", "--format", "{{.Type}}\t{{.Size}}"), output);
+        if (exitCode != 0) {
+            throw new IllegalStateException("docker system df exited with code " + exitCode);
+        }
+        for (String line : output.toString(StandardCharsets.UTF_8.name()).split("\\r?\\n")) {
+            if (line.startsWith("Images\t")) {
+                return DockerProgress.parseSize(StringUtils.substringAfter(line, "\t"));
+            }
+        }
+        return 0;
+    }
+
+    private int run(Launcher launcher, ArgumentListBuilder command, ByteArrayOutputStream output) throws IOException, InterruptedException {
+        return launcher.launch().cmds(command).stdout(output).stderr(output).quiet(true).join();
+    }
+
+    private Map<String, Long> getLastUsed() {
+        if (lastUsed == null) {
+            lastUsed = new HashMap<>();
+            File stateFile = getStateFile();
+            if (stateFile.exists()) {
+                for (Map.Entry<String, String> entry : FileUtils.readUtf8Properties(stateFile).entrySet()) {
+                    lastUsed.put(entry.getKey(), Long.parseLong(entry.getValue()));
+                }
+            }
+        }
+        return lastUsed;
+    }
+
+    private void saveLastUsed() {
+        Map<String, String> state = new HashMap<>();
+        for (Map.Entry<String, Long> entry : lastUsed.entrySet()) {
+            state.put(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        FileUtils.writeUtf8Properties(state, getStateFile());
+    }
+
+    private File getStateFile() {
+        return new File(Jenkins.get().getRootDir(), STATE_FILE_NAME);
+    }
+
+}
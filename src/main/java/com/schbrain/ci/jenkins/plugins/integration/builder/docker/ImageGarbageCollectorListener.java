@@ -0,0 +1,46 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.docker;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.IntegrationBuilder.IntegrationDescriptor;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Hand the images of the completed builds to the {@link ImageGarbageCollector}
+ *
+ * @author liaozan
+ * @since 2022/2/26
+ */
+@Extension
+@SuppressWarnings("unused")
+public class ImageGarbageCollectorListener extends RunListener<Run<?, ?>> {
+
+    private static final long BYTES_PER_GB = 1000L * 1000 * 1000;
+
+    @Override
+    public void onCompleted(Run<?, ?> run, TaskListener listener) {
+        ImageUsageAction imageUsage = run.getAction(ImageUsageAction.class);
+        if (imageUsage == null || imageUsage.getNodeName() == null) {
+            return;
+        }
+        // the images of a pipeline are on the node of the step, not necessarily the one of the build
+        Computer computer = Jenkins.get().getComputer(imageUsage.getNodeName());
+        Node node = computer == null ? null : computer.getNode();
+        if (node == null) {
+            return;
+        }
+        Collection<String> expiredImages = imageUsage.isDeleteAfterBuild() ? imageUsage.getImages() : Collections.emptyList();
+        Collection<String> usedImages = imageUsage.isDeleteAfterBuild() ? Collections.emptyList() : imageUsage.getImages();
+        IntegrationDescriptor descriptor = Jenkins.get().getDescriptorByType(IntegrationDescriptor.class);
+        long budgetBytes = descriptor.getImageDiskBudget() * BYTES_PER_GB;
+        ImageGarbageCollector.get().submit(node, usedImages, expiredImages, budgetBytes);
+    }
+
+}
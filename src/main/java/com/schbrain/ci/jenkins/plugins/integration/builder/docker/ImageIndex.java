@@ -0,0 +1,59 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.docker;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.Job;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * The images built by a job, keyed by the hash of their inputs, see {@link ImageInputHash}.
+ * <p>
+ * Stored in the job directory, only the most recent entries are kept.
+ *
+ * @author liaozan
+ * @since 2022/2/25
+ */
+public class ImageIndex {
+
+    private static final String FILE_NAME = "integration-image-index.properties";
+    private static final int MAX_ENTRIES = 100;
+
+    @CheckForNull
+    public static synchronized String get(Job<?, ?> job, String inputHash) {
+        String entry = load(job).get(inputHash);
+        if (entry == null) {
+            return null;
+        }
+        return StringUtils.substringAfter(entry, ",");
+    }
+
+    public static synchronized void put(Job<?, ?> job, String inputHash, String imageName) {
+        Map<String, String> entries = load(job);
+        // entries are "timestamp,image", the oldest ones are evicted first
+        entries.put(inputHash, System.currentTimeMillis() + "," + imageName);
+        if (entries.size() > MAX_ENTRIES) {
+            List<Map.Entry<String, String>> sortedEntries = new ArrayList<>(entries.entrySet());
+            sortedEntries.sort(Comparator.comparingLong(entry -> Long.parseLong(StringUtils.substringBefore(entry.getValue(), ","))));
+            for (Map.Entry<String, String> entry : sortedEntries.subList(0, entries.size() - MAX_ENTRIES)) {
+                entries.remove(entry.getKey());
+            }
+        }
+        FileUtils.writeUtf8Properties(entries, getFile(job));
+    }
+
+    private static Map<String, String> load(Job<?, ?> job) {
+        File file = getFile(job);
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+        return FileUtils.readUtf8Properties(file);
+    }
+
+    private static File getFile(Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE_NAME);
+    }
+
+}
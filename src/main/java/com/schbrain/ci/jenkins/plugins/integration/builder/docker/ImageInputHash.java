@@ -0,0 +1,279 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.docker;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.remoting.VirtualChannel;
+import hudson.Util;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Hash the inputs of a docker build on the build node: the Dockerfile, its .dockerignore, the files it copies from
+ * the build context, the build arguments and the ids of its base images. Invoked on the build context directory,
+ * i.e. the workspace.
+ * <p>
+ * Returns null when the inputs can not be determined, e.g. when the Dockerfile adds remote urls.
+ * <p>
+ * The RUN instructions are assumed to be hermetic: the packages or files they download are not part of the hash,
+ * so an image reused through the hash keeps the versions fetched by the build which created it.
+ *
+ * @author liaozan
+ * @since 2022/2/25
+ */
+public class ImageInputHash extends MasterToSlaveFileCallable<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String DOCKER_IGNORE = ".dockerignore";
+    private static final String SCRATCH = "scratch";
+
+    private final String dockerfile;
+    private final List<String> buildArgs;
+    private final TreeMap<String, String> baseImageIds;
+
+    /**
+     * @param baseImageIds the ids of the base images on the build node by name, see {@link #getBaseImages(String)}
+     */
+    public ImageInputHash(String dockerfile, List<String> buildArgs, Map<String, String> baseImageIds) {
+        this.dockerfile = dockerfile;
+        this.buildArgs = new ArrayList<>(buildArgs);
+        this.baseImageIds = new TreeMap<>(baseImageIds);
+    }
+
+    @Override
+    public String invoke(File contextDirectory, VirtualChannel channel) throws IOException {
+        Path root = contextDirectory.toPath();
+        Path dockerfilePath = root.resolve(dockerfile);
+        if (!Files.isRegularFile(dockerfilePath)) {
+            return null;
+        }
+        MessageDigest digest = newDigest();
+        update(digest, "dockerfile", dockerfilePath);
+        for (String buildArg : buildArgs) {
+            digest.update(("arg:" + buildArg + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        for (Map.Entry<String, String> baseImage : baseImageIds.entrySet()) {
+            digest.update(("base:" + baseImage.getKey() + "@" + baseImage.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        // the ignore file of the Dockerfile replaces the one of the build context
+        for (Path ignoreFile : Arrays.asList(root.resolve(dockerfile + DOCKER_IGNORE), root.resolve(DOCKER_IGNORE))) {
+            if (Files.isRegularFile(ignoreFile)) {
+                update(digest, "ignore:" + root.relativize(ignoreFile), ignoreFile);
+                break;
+            }
+        }
+
+        List<String> sources = getCopiedSources(new String(Files.readAllBytes(dockerfilePath), StandardCharsets.UTF_8));
+        if (sources == null) {
+            return null;
+        }
+        SortedMap<String, Path> files = new TreeMap<>();
+        for (String source : sources) {
+            collectFiles(root, source, files);
+        }
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            update(digest, file.getKey(), file.getValue());
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * The images the stages of the Dockerfile are built from, excluding the earlier stages and scratch
+     *
+     * @return null if a base image is named by a build argument
+     */
+    @CheckForNull
+    public static List<String> getBaseImages(String dockerfileContent) {
+        Set<String> baseImages = new LinkedHashSet<>();
+        Set<String> stageNames = new HashSet<>();
+        for (String instruction : getInstructions(dockerfileContent)) {
+            String[] tokens = instruction.trim().split("\\s+");
+            if (!tokens[0].equalsIgnoreCase("FROM")) {
+                continue;
+            }
+            List<String> arguments = new ArrayList<>();
+            for (int i = 1; i < tokens.length; i++) {
+                if (!tokens[i].startsWith("--")) {
+                    arguments.add(tokens[i]);
+                }
+            }
+            if (arguments.isEmpty()) {
+                continue;
+            }
+            String image = arguments.get(0);
+            if (image.contains("$")) {
+                return null;
+            }
+            if (!image.equalsIgnoreCase(SCRATCH) && !stageNames.contains(image.toLowerCase(Locale.ROOT))) {
+                baseImages.add(image);
+            }
+            if (arguments.size() == 3 && arguments.get(1).equalsIgnoreCase("AS")) {
+                stageNames.add(arguments.get(2).toLowerCase(Locale.ROOT));
+            }
+        }
+        return new ArrayList<>(baseImages);
+    }
+
+    /**
+     * The sources of the COPY and ADD instructions which read from the build context, null if one of them is a url
+     */
+    static List<String> getCopiedSources(String dockerfileContent) {
+        List<String> sources = new ArrayList<>();
+        for (String instruction : getInstructions(dockerfileContent)) {
+            String[] tokens = instruction.trim().split("\\s+");
+            String keyword = tokens[0].toUpperCase(Locale.ROOT);
+            if (!keyword.equals("COPY") && !keyword.equals("ADD")) {
+                continue;
+            }
+            List<String> arguments = new ArrayList<>();
+            boolean fromOtherStage = false;
+            for (int i = 1; i < tokens.length; i++) {
+                if (tokens[i].startsWith("--from=")) {
+                    fromOtherStage = true;
+                } else if (!tokens[i].startsWith("--")) {
+                    arguments.add(tokens[i]);
+                }
+            }
+            if (fromOtherStage) {
+                continue;
+            }
+            arguments = unwrapJsonForm(arguments);
+            // the last argument is the destination
+            for (int i = 0; i < arguments.size() - 1; i++) {
+                String source = arguments.get(i);
+                if (source.contains("://")) {
+                    return null;
+                }
+                sources.add(source);
+            }
+        }
+        return sources;
+    }
+
+    private static List<String> getInstructions(String dockerfileContent) {
+        List<String> instructions = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : dockerfileContent.split("\\r?\\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("#")) {
+                continue;
+            }
+            if (trimmed.endsWith("\\")) {
+                current.append(trimmed, 0, trimmed.length() - 1).append(' ');
+                continue;
+            }
+            current.append(trimmed);
+            if (current.toString().trim().length() > 0) {
+                instructions.add(current.toString());
+            }
+            current.setLength(0);
+        }
+        if (current.toString().trim().length() > 0) {
+            instructions.add(current.toString());
+        }
+        return instructions;
+    }
+
+    private static List<String> unwrapJsonForm(List<String> arguments) {
+        String joined = String.join(" ", arguments).trim();
+        if (!joined.startsWith("[") || !joined.endsWith("]")) {
+            return arguments;
+        }
+        List<String> result = new ArrayList<>();
+        for (String element : joined.substring(1, joined.length() - 1).split(",")) {
+            String value = element.trim();
+            if (value.startsWith("\"") && value.endsWith("\"") && value.length() >= 2) {
+                value = value.substring(1, value.length() - 1);
+            }
+            result.add(value);
+        }
+        return result;
+    }
+
+    private static void collectFiles(Path root, String source, SortedMap<String, Path> files) throws IOException {
+        String normalizedSource = source.startsWith("/") ? source.substring(1) : source;
+        int wildcardIndex = indexOfWildcard(normalizedSource);
+        if (wildcardIndex < 0) {
+            Path path = root.resolve(normalizedSource).normalize();
+            if (!Files.exists(path)) {
+                // a missing source fails the docker build, hashing the name is enough
+                files.put(normalizedSource, null);
+                return;
+            }
+            walk(root, path, null, files);
+            return;
+        }
+        int baseEnd = normalizedSource.lastIndexOf('/', wildcardIndex);
+        Path base = baseEnd < 0 ? root : root.resolve(normalizedSource.substring(0, baseEnd));
+        if (!Files.isDirectory(base)) {
+            files.put(normalizedSource, null);
+            return;
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + normalizedSource);
+        walk(root, base, matcher, files);
+    }
+
+    private static void walk(Path root, Path start, PathMatcher matcher, SortedMap<String, Path> files) throws IOException {
+        try (Stream<Path> paths = Files.walk(start)) {
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                Path relativePath = root.relativize(path);
+                if (matcher == null || matchesSelfOrParent(matcher, relativePath)) {
+                    files.put(relativePath.toString().replace('\\', '/'), path);
+                }
+            });
+        }
+    }
+
+    /**
+     * A matched directory is copied with all its content
+     */
+    private static boolean matchesSelfOrParent(PathMatcher matcher, Path relativePath) {
+        for (Path path = relativePath; path != null; path = path.getParent()) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOfWildcard(String source) {
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '*' || c == '?' || c == '[') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void update(MessageDigest digest, String name, Path file) throws IOException {
+        digest.update(("file:" + name + "\n").getBytes(StandardCharsets.UTF_8));
+        if (file == null) {
+            return;
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream input = Files.newInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.docker;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.InvisibleAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the images a build created or used on its node, handed to the {@link ImageGarbageCollector} when the build completes
+ *
+ * @author liaozan
+ * @since 2022/2/26
+ */
+public class ImageUsageAction extends InvisibleAction {
+
+    private final List<String> images;
+    private final boolean deleteAfterBuild;
+    private final String nodeName;
+
+    /**
+     * @param nodeName the node the images are on, empty for the built-in node
+     */
+    public ImageUsageAction(List<String> images, boolean deleteAfterBuild, @CheckForNull String nodeName) {
+        this.images = new ArrayList<>(images);
+        this.deleteAfterBuild = deleteAfterBuild;
+        this.nodeName = nodeName;
+    }
+
+    public List<String> getImages() {
+        return Collections.unmodifiableList(images);
+    }
+
+    /**
+     * Whether the images should be removed as soon as the build completes, regardless of the disk budget
+     */
+    public boolean isDeleteAfterBuild() {
+        return deleteAfterBuild;
+    }
+
+    /**
+     * @return null if the node was offline when the images were recorded
+     */
+    @CheckForNull
+    public String getNodeName() {
+        return nodeName;
+    }
+
+}
@@ -1,14 +1,12 @@
 package com.schbrain.ci.jenkins.plugins.integration.builder.env;
 
-import com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils;
-import hudson.EnvVars;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildVariableContributor;
 import hudson.model.Environment;
+import hudson.model.Run;
 
-import java.io.File;
-import java.io.IOException;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
@@ -21,47 +19,22 @@ import java.util.Map;
 @SuppressWarnings("unused")
 public class BuildEnvContributor extends BuildVariableContributor {
 
-    private static final String DELIMITER = "=";
-
-    public static void saveEnvVarsToDisk(EnvVars envVars, String baseName) {
-        FileUtils.writeUtf8Map(envVars, getEnvVarsFile(baseName), DELIMITER);
-    }
-
-    public static void clearEnvVarsFromDisk(String baseName) {
-        FileUtils.writeUtf8String("", getEnvVarsFile(baseName));
-    }
-
-    private static File getEnvVarsFile(String baseName) {
-        File directory = new File(System.getProperty("java.io.tmpdir"), baseName);
-        if (!directory.exists()) {
-            // noinspection ResultOfMethodCallIgnored
-            directory.mkdirs();
-        }
-        File envVarsFile = new File(directory, "envVars");
-        if (!envVarsFile.exists()) {
-            try {
-                // noinspection ResultOfMethodCallIgnored
-                envVarsFile.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return envVarsFile;
+    /**
+     * The snapshot of the variables which are shared with the commands executed in the workspace.
+     * <p>
+     * Only the variables of the freestyle builds are written next to the workspace, the pipelines do not read them back.
+     */
+    public static EnvVarsSnapshot newSnapshot(Run<?, ?> build, FilePath workspace) {
+        FilePath directory = build instanceof AbstractBuild ? BuildEnvStore.getDirectory(workspace) : null;
+        return new EnvVarsSnapshot(BuildEnvStore.get(), build.getExternalizableId(), directory);
     }
 
     @Override
     public void buildVariablesFor(AbstractBuild build, Map<String, String> variables) {
-        // noinspection ConstantConditions
-        File envFilePath = getEnvVarsFile(build.getWorkspace().getBaseName());
-        EnvVars envVars = new EnvVars();
-        for (String line : FileUtils.readUtf8Lines(envFilePath)) {
-            String[] variablePair = line.split(DELIMITER);
-            // variables may not be split by =
-            if (variablePair.length != 1) {
-                envVars.putIfNotNull(variablePair[0], variablePair[1]);
-            }
+        Map<String, String> envVars = BuildEnvStore.get().load(build.getExternalizableId(), BuildEnvStore.getDirectory(build.getWorkspace()));
+        if (envVars != null) {
+            variables.putAll(envVars);
         }
-        variables.putAll(envVars);
     }
 
     public static class CustomEnvironment extends Environment {
@@ -0,0 +1,26 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.env;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+/**
+ * Evict the environment variables of the completed builds
+ *
+ * @author liaozan
+ * @since 2022/2/12
+ */
+@Extension
+@SuppressWarnings("unused")
+public class BuildEnvListener extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onCompleted(Run<?, ?> run, TaskListener listener) {
+        FilePath workspace = run instanceof AbstractBuild ? ((AbstractBuild<?, ?>) run).getWorkspace() : null;
+        BuildEnvStore.get().evict(run.getExternalizableId(), BuildEnvStore.getDirectory(workspace));
+    }
+
+}
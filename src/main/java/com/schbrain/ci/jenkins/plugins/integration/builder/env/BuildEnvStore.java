@@ -0,0 +1,110 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.env;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.FileUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.slaves.WorkspaceList;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The environment variables of the running builds, keyed by build id.
+ * <p>
+ * Variables are served from memory, the properties file kept next to the workspace on the build node is only a fallback
+ * for the variables which are not cached any more (e.g. the controller restarted while the build was running).
+ * Entries are evicted when the build completes, see {@link BuildEnvListener}.
+ *
+ * @author liaozan
+ * @since 2022/2/12
+ */
+public class BuildEnvStore {
+
+    private static final BuildEnvStore INSTANCE = new BuildEnvStore();
+
+    private static final String DIRECTORY_NAME = "integration-env";
+
+    private final ConcurrentMap<String, Map<String, String>> cache = new ConcurrentHashMap<>();
+
+    BuildEnvStore() {
+    }
+
+    public static BuildEnvStore get() {
+        return INSTANCE;
+    }
+
+    /**
+     * The directory of the variables files of the builds using the workspace, in the temp directory of the workspace
+     *
+     * @return null if the build has no workspace
+     */
+    @CheckForNull
+    public static FilePath getDirectory(@CheckForNull FilePath workspace) {
+        FilePath tempDir = workspace == null ? null : WorkspaceList.tempDir(workspace);
+        return tempDir == null ? null : tempDir.child(DIRECTORY_NAME);
+    }
+
+    /**
+     * @param directory where the variables are written, they are only kept in memory if null
+     */
+    public void save(String buildId, @CheckForNull FilePath directory, Map<String, String> envVars) throws InterruptedException {
+        Map<String, String> variables = Collections.unmodifiableMap(new HashMap<>(envVars));
+        cache.put(buildId, variables);
+        if (directory == null) {
+            return;
+        }
+        try {
+            FileUtils.writeUtf8Properties(variables, getFile(directory, buildId));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @CheckForNull
+    public Map<String, String> load(String buildId, @CheckForNull FilePath directory) {
+        Map<String, String> variables = cache.get(buildId);
+        if (variables != null || directory == null) {
+            return variables;
+        }
+        try {
+            variables = FileUtils.readUtf8Properties(getFile(directory, buildId));
+        } catch (IOException e) {
+            // the node is offline, the variables are lost
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (variables == null) {
+            return null;
+        }
+        variables = Collections.unmodifiableMap(variables);
+        Map<String, String> existing = cache.putIfAbsent(buildId, variables);
+        return existing != null ? existing : variables;
+    }
+
+    public void evict(String buildId, @CheckForNull FilePath directory) {
+        cache.remove(buildId);
+        if (directory == null) {
+            return;
+        }
+        try {
+            getFile(directory, buildId).delete();
+        } catch (IOException e) {
+            // the node is offline, the file goes with the workspace
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private FilePath getFile(FilePath directory, String buildId) {
+        // build ids contain the full name of the job, which is not a valid file name
+        return directory.child(Util.getDigestOf(buildId) + ".properties");
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.env;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+
+import java.util.*;
+
+/**
+ * The last environment variables written to disk.
+ * <p>
+ * Keeps a copy of the persisted variables so that a save only touches the store when the variables actually changed.
+ *
+ * @author liaozan
+ * @since 2022/2/11
+ */
+public class EnvVarsSnapshot {
+
+    private final BuildEnvStore store;
+    private final String buildId;
+    private final FilePath directory;
+
+    private Map<String, String> persisted;
+    private long version;
+
+    /**
+     * @param directory where the store writes the variables, see {@link BuildEnvStore#getDirectory(FilePath)}
+     */
+    public EnvVarsSnapshot(BuildEnvStore store, String buildId, @CheckForNull FilePath directory) {
+        this.store = store;
+        this.buildId = buildId;
+        this.directory = directory;
+    }
+
+    /**
+     * Persist the variables if they differ from the last persisted ones
+     *
+     * @return true if the variables have been written to the store
+     */
+    public synchronized boolean save(Map<String, String> envVars) throws InterruptedException {
+        if (persisted != null && getDirtyKeys(envVars).isEmpty()) {
+            return false;
+        }
+        Map<String, String> snapshot = new HashMap<>(envVars);
+        store.save(buildId, directory, snapshot);
+        persisted = snapshot;
+        version++;
+        return true;
+    }
+
+    /**
+     * The keys which are added, changed or removed since the last save
+     */
+    public synchronized Set<String> getDirtyKeys(Map<String, String> envVars) {
+        if (persisted == null) {
+            return new HashSet<>(envVars.keySet());
+        }
+        Set<String> dirtyKeys = new HashSet<>();
+        for (Map.Entry<String, String> entry : envVars.entrySet()) {
+            if (!Objects.equals(entry.getValue(), persisted.get(entry.getKey()))) {
+                dirtyKeys.add(entry.getKey());
+            }
+        }
+        for (String persistedKey : persisted.keySet()) {
+            if (!envVars.containsKey(persistedKey)) {
+                dirtyKeys.add(persistedKey);
+            }
+        }
+        return dirtyKeys;
+    }
+
+    /**
+     * How many times the variables have been written, 0 means never
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+}
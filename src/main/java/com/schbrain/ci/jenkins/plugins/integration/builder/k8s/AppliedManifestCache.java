@@ -0,0 +1,105 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.k8s;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import hudson.model.Job;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * The manifest last applied to each deploy target of a job, stored in the job directory
+ *
+ * @author liaozan
+ * @since 2022/3/2
+ */
+public class AppliedManifestCache {
+
+    private static final String DIRECTORY_NAME = "integration-applied-manifests";
+    private static final int MAX_DIFF_LINES = 20;
+    // a cache is created per target and build, so the writers of a file are serialized by a shared lock stripe
+    private static final Object[] LOCKS = new Object[32];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private final File directory;
+
+    public AppliedManifestCache(Job<?, ?> job) {
+        this.directory = new File(job.getRootDir(), DIRECTORY_NAME);
+    }
+
+    @CheckForNull
+    public String get(String targetKey) throws IOException {
+        File file = getFile(targetKey);
+        if (!file.exists()) {
+            return null;
+        }
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    public void put(String targetKey, String manifest) throws IOException {
+        Files.createDirectories(directory.toPath());
+        File file = getFile(targetKey);
+        synchronized (getLock(file)) {
+            Path tempFile = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+            try {
+                Files.write(tempFile, manifest.getBytes(StandardCharsets.UTF_8));
+                Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    private File getFile(String targetKey) {
+        return new File(directory, Util.getDigestOf(targetKey) + ".yaml");
+    }
+
+    private static Object getLock(File file) {
+        return LOCKS[Math.floorMod(file.getAbsolutePath().hashCode(), LOCKS.length)];
+    }
+
+    /**
+     * Summarize the changed lines, regardless of their order
+     */
+    public static List<String> diffSummary(String previous, String current) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String line : previous.split("\\r?\\n")) {
+            counts.merge(line, -1, Integer::sum);
+        }
+        for (String line : current.split("\\r?\\n")) {
+            counts.merge(line, 1, Integer::sum);
+        }
+        int added = 0;
+        int removed = 0;
+        List<String> changedLines = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            int count = entry.getValue();
+            if (count == 0) {
+                continue;
+            }
+            if (count > 0) {
+                added += count;
+            } else {
+                removed -= count;
+            }
+            if (changedLines.size() < MAX_DIFF_LINES) {
+                changedLines.add((count > 0 ? "+ " : "- ") + entry.getKey());
+            }
+        }
+        List<String> summary = new ArrayList<>(changedLines.size() + 1);
+        summary.add(String.format("%s lines added, %s lines removed", added, removed));
+        summary.addAll(changedLines);
+        return summary;
+    }
+
+}
@@ -0,0 +1,232 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.k8s;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.BuilderContext;
+import com.schbrain.ci.jenkins.plugins.integration.builder.RetryPolicy;
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.PrefixedOutputStream;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Proc;
+import hudson.util.ArgumentListBuilder;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Run kubectl commands on the build node.
+ * <p>
+ * kubectl is launched directly, without a shell script in between, and manifests are applied server side,
+ * so the merge is computed by the api server instead of a client side diff against the last applied annotation.
+ *
+ * @author liaozan
+ * @since 2022/2/27
+ */
+public class KubectlClient {
+
+    /**
+     * Owner of the fields set by the applied manifests
+     */
+    public static final String FIELD_MANAGER = "integration-jenkins-plugin";
+
+    private static final int NEW_REPLICA_SET_ATTEMPTS = 5;
+
+    private final BuilderContext context;
+    private final String kubeconfig;
+    private final String namespace;
+
+    public KubectlClient(BuilderContext context, @CheckForNull String kubeconfig) {
+        this(context, kubeconfig, null);
+    }
+
+    /**
+     * @param kubeconfig the kubeconfig file, the default one of kubectl if blank
+     * @param namespace  the namespace of the objects which do not declare one, the one of the kubeconfig context if blank
+     */
+    public KubectlClient(BuilderContext context, @CheckForNull String kubeconfig, @CheckForNull String namespace) {
+        this.context = context;
+        this.kubeconfig = kubeconfig;
+        this.namespace = namespace;
+    }
+
+    /**
+     * Server side apply the manifest file, the fields owned by other managers are taken over
+     *
+     * @param manifest the manifest path relative to the workspace
+     */
+    public void apply(String manifest) throws InterruptedException {
+        context.execute(applyCommand(manifest), null, RetryPolicy.KUBECTL);
+    }
+
+    ArgumentListBuilder applyCommand(String manifest) {
+        ArgumentListBuilder command = kubectl("apply")
+                .add("--server-side")
+                .add("--force-conflicts")
+                .add("--field-manager", FIELD_MANAGER)
+                .add("-f", manifest);
+        return namespaced(command, namespace);
+    }
+
+    /**
+     * Wait for the workloads of the manifest to be rolled out, one after another, while streaming the changes of the pods
+     * and the events of the new ReplicaSets into the build log. Fails as soon as a pod is in a state it will not recover from.
+     *
+     * @param workloads   the Deployments and StatefulSets of the applied manifest, see {@link RolloutWorkload#parse(String)}
+     * @param podSelector the label selector of the pods to watch
+     * @param namespace   the namespace of the pods and of the workloads which do not declare one,
+     *                    the one of the kubeconfig context if blank
+     */
+    public void trackRollout(List<RolloutWorkload> workloads, String podSelector, @CheckForNull String namespace, int timeoutSeconds) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicReference<Proc> rollout = new AtomicReference<>();
+        OutputStream log = context.getListener().getLogger();
+        RolloutFailureDetector podOutput = new RolloutFailureDetector("[pods] ", log, line -> {
+            failure.compareAndSet(null, line);
+            killQuietly(rollout.get());
+        });
+
+        List<Proc> watchers = new ArrayList<>();
+        try {
+            watchers.add(context.start(namespaced(kubectl("get").add("pods", "--watch-only", "-l", podSelector), namespace), podOutput));
+            for (RolloutWorkload workload : workloads) {
+                String workloadNamespace = StringUtils.defaultIfBlank(workload.getNamespace(), namespace);
+                String replicaSet = workload.isDeployment() ? getNewReplicaSet(workload.getName(), workloadNamespace) : null;
+                if (replicaSet == null) {
+                    continue;
+                }
+                ArgumentListBuilder events = kubectl("get").add("events", "--watch-only", "--field-selector",
+                        "involvedObject.kind=ReplicaSet,involvedObject.name=" + replicaSet);
+                watchers.add(context.start(namespaced(events, workloadNamespace), new PrefixedOutputStream("[replicaset] ", log)));
+            }
+
+            for (RolloutWorkload workload : workloads) {
+                long remainingSeconds = TimeUnit.MILLISECONDS.toSeconds(deadline - System.currentTimeMillis());
+                if (remainingSeconds <= 0) {
+                    throw new IllegalStateException("rollout is not finished within " + timeoutSeconds + "s");
+                }
+                context.log("waiting for the rollout of %s, timeout %ss", workload, remainingSeconds);
+                rollout.set(context.start(rolloutStatusCommand(workload, namespace, remainingSeconds), null));
+                if (failure.get() != null) {
+                    killQuietly(rollout.get());
+                }
+                int exitCode = rollout.get().join();
+                if (failure.get() != null) {
+                    throw new IllegalStateException("rollout failed: " + failure.get().trim());
+                }
+                if (exitCode != 0) {
+                    throw new IllegalStateException("rollout of " + workload + " is not finished within " + timeoutSeconds + "s");
+                }
+            }
+        } finally {
+            for (Proc watcher : watchers) {
+                killQuietly(watcher);
+            }
+        }
+    }
+
+    ArgumentListBuilder rolloutStatusCommand(RolloutWorkload workload, @CheckForNull String namespace, long timeoutSeconds) {
+        ArgumentListBuilder command = kubectl("rollout").add("status", workload.getResource(), "--timeout=" + timeoutSeconds + "s");
+        return namespaced(command, StringUtils.defaultIfBlank(workload.getNamespace(), namespace));
+    }
+
+    /**
+     * The ReplicaSet of the current revision of the deployment, waits a little for the controller to observe the applied one
+     *
+     * @return null if it is not known yet
+     */
+    @CheckForNull
+    private String getNewReplicaSet(String deployment, @CheckForNull String namespace) throws IOException, InterruptedException {
+        String revision = null;
+        for (int attempt = 0; attempt < NEW_REPLICA_SET_ATTEMPTS && revision == null; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(1_000);
+            }
+            ArgumentListBuilder command = kubectl("get").add("deployment", deployment, "-o",
+                    "jsonpath={.metadata.generation} {.status.observedGeneration} {.metadata.annotations.deployment\\.kubernetes\\.io/revision}");
+            revision = parseObservedRevision(query(namespaced(command, namespace)));
+        }
+        if (revision == null) {
+            context.log("the new ReplicaSet of deployment %s is not known yet, its events are not watched", deployment);
+            return null;
+        }
+        ArgumentListBuilder command = kubectl("get").add("replicasets", "-o",
+                "jsonpath={range .items[*]}{.metadata.name} {.metadata.ownerReferences[0].name} {.metadata.annotations.deployment\\.kubernetes\\.io/revision}{\"\\n\"}{end}");
+        return findReplicaSet(query(namespaced(command, namespace)), deployment, revision);
+    }
+
+    /**
+     * @param output the generation, the observed generation and the revision of a deployment
+     * @return the revision, null if the deployment controller has not observed the latest generation yet
+     */
+    @CheckForNull
+    static String parseObservedRevision(@CheckForNull String output) {
+        String[] fields = StringUtils.split(StringUtils.defaultString(output));
+        if (fields.length != 3 || !fields[0].equals(fields[1])) {
+            return null;
+        }
+        return fields[2];
+    }
+
+    /**
+     * @param output the name, the owner and the revision of a ReplicaSet per line
+     * @return null if no ReplicaSet of the deployment has the revision
+     */
+    @CheckForNull
+    static String findReplicaSet(@CheckForNull String output, String deployment, String revision) {
+        for (String line : StringUtils.defaultString(output).split("\\r?\\n")) {
+            String[] fields = StringUtils.split(line);
+            if (fields.length == 3 && fields[1].equals(deployment) && fields[2].equals(revision)) {
+                return fields[0];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run the command once and capture its output
+     *
+     * @return null if the command failed
+     */
+    @CheckForNull
+    private String query(ArgumentListBuilder command) throws IOException, InterruptedException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (context.launch(command, output) != 0) {
+            return null;
+        }
+        return output.toString(StandardCharsets.UTF_8.name());
+    }
+
+    private ArgumentListBuilder namespaced(ArgumentListBuilder arguments, @CheckForNull String namespace) {
+        if (StringUtils.isNotBlank(namespace)) {
+            arguments.add("-n", namespace);
+        }
+        return arguments;
+    }
+
+    private void killQuietly(@CheckForNull Proc proc) {
+        if (proc == null) {
+            return;
+        }
+        try {
+            proc.kill();
+        } catch (IOException e) {
+            context.log("failed to stop kubectl: %s", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ArgumentListBuilder kubectl(String command) {
+        ArgumentListBuilder arguments = new ArgumentListBuilder("kubectl", command);
+        if (StringUtils.isNotBlank(kubeconfig)) {
+            arguments.add("--kubeconfig", kubeconfig);
+        }
+        return arguments;
+    }
+
+}
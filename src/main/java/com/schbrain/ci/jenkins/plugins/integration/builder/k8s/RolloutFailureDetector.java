@@ -0,0 +1,50 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.k8s;
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Copy the watched pod lines to the build log, with a prefix, and report the first line showing a pod which will not recover
+ *
+ * @author liaozan
+ * @since 2022/2/28
+ */
+public class RolloutFailureDetector extends LineTransformationOutputStream.Delegating {
+
+    private static final List<String> FAILURE_REASONS = Arrays.asList(
+            "CrashLoopBackOff", "ImagePullBackOff", "ErrImagePull", "InvalidImageName", "CreateContainerConfigError");
+
+    private final String prefix;
+    private final Consumer<String> onFailure;
+
+    private volatile boolean failed;
+
+    public RolloutFailureDetector(String prefix, OutputStream out, Consumer<String> onFailure) {
+        super(out);
+        this.prefix = prefix;
+        this.onFailure = onFailure;
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        String line = trimEOL(new String(b, 0, len, StandardCharsets.UTF_8));
+        out.write((prefix + line + "\n").getBytes(StandardCharsets.UTF_8));
+        if (failed) {
+            return;
+        }
+        for (String reason : FAILURE_REASONS) {
+            if (line.contains(reason)) {
+                failed = true;
+                onFailure.accept(line);
+                return;
+            }
+        }
+    }
+
+}
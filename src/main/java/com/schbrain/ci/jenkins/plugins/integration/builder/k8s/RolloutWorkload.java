@@ -0,0 +1,125 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.k8s;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A workload of the manifest which {@code kubectl rollout status} can wait for
+ *
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class RolloutWorkload {
+
+    private static final List<String> KINDS = Arrays.asList("Deployment", "StatefulSet");
+
+    private static final Pattern DOCUMENT_SEPARATOR = Pattern.compile("(?m)^---.*$");
+    private static final Pattern KIND_PATTERN = Pattern.compile("^kind:\\s*[\"']?(\\w+)");
+    private static final Pattern FIELD_PATTERN = Pattern.compile("^(\\s+)(name|namespace):\\s*[\"']?([\\w.-]+)");
+
+    private final String kind;
+    private final String name;
+    private final String namespace;
+
+    public RolloutWorkload(String kind, String name, @CheckForNull String namespace) {
+        this.kind = kind;
+        this.name = name;
+        this.namespace = namespace;
+    }
+
+    /**
+     * The Deployments and StatefulSets of the manifest, in the order they are declared
+     */
+    public static List<RolloutWorkload> parse(String manifest) {
+        List<RolloutWorkload> workloads = new ArrayList<>();
+        for (String document : DOCUMENT_SEPARATOR.split(manifest)) {
+            RolloutWorkload workload = parseDocument(document);
+            if (workload != null) {
+                workloads.add(workload);
+            }
+        }
+        return workloads;
+    }
+
+    @CheckForNull
+    private static RolloutWorkload parseDocument(String document) {
+        String kind = null;
+        String name = null;
+        String namespace = null;
+        boolean inMetadata = false;
+        String metadataIndent = null;
+        for (String line : document.split("\\r?\\n")) {
+            if (StringUtils.isBlank(line) || line.trim().startsWith("#")) {
+                continue;
+            }
+            if (!Character.isWhitespace(line.charAt(0))) {
+                inMetadata = line.startsWith("metadata:");
+                Matcher kindMatcher = KIND_PATTERN.matcher(line);
+                if (kindMatcher.find()) {
+                    kind = kindMatcher.group(1);
+                }
+                continue;
+            }
+            Matcher fieldMatcher = FIELD_PATTERN.matcher(line);
+            if (!inMetadata || !fieldMatcher.find()) {
+                continue;
+            }
+            // only the direct fields of the metadata, not the ones of e.g. the owner references
+            if (metadataIndent == null) {
+                metadataIndent = fieldMatcher.group(1);
+            }
+            if (!metadataIndent.equals(fieldMatcher.group(1))) {
+                continue;
+            }
+            if (fieldMatcher.group(2).equals("name")) {
+                name = fieldMatcher.group(3);
+            } else {
+                namespace = fieldMatcher.group(3);
+            }
+        }
+        if (!KINDS.contains(kind) || name == null) {
+            return null;
+        }
+        return new RolloutWorkload(kind, name, namespace);
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return null if the workload is in the namespace the manifest is applied to
+     */
+    @CheckForNull
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public boolean isDeployment() {
+        return kind.equals("Deployment");
+    }
+
+    /**
+     * The resource argument of kubectl, e.g. deployment/application
+     */
+    public String getResource() {
+        return kind.toLowerCase(Locale.ROOT) + "/" + name;
+    }
+
+    @Override
+    public String toString() {
+        return getResource();
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.maven;
+
+import hudson.model.InvisibleAction;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * The maven parallelism chosen for a build, from the cores of the node shared by its busy executors.
+ * <p>
+ * The share of the build is used by the reactor threads up to the cap, the remaining cores by the surefire forks.
+ *
+ * @author liaozan
+ * @since 2022/3/7
+ */
+public class MavenParallelismAction extends InvisibleAction {
+
+    private final int cores;
+    private final int busyExecutors;
+    private final int maxThreads;
+    private final int threads;
+    private final int forkCount;
+
+    private MavenParallelismAction(int cores, int busyExecutors, int maxThreads, int threads, int forkCount) {
+        this.cores = cores;
+        this.busyExecutors = busyExecutors;
+        this.maxThreads = maxThreads;
+        this.threads = threads;
+        this.forkCount = forkCount;
+    }
+
+    /**
+     * @param busyExecutors the busy executors of the node, including the one of the build
+     * @param maxThreads    the cap of the reactor threads, 0 for no cap
+     */
+    public static MavenParallelismAction decide(int cores, int busyExecutors, int maxThreads) {
+        int busy = Math.max(busyExecutors, 1);
+        int share = Math.max(cores / busy, 1);
+        int threads = maxThreads > 0 ? Math.min(share, maxThreads) : share;
+        int forkCount = Math.max(share / threads, 1);
+        return new MavenParallelismAction(cores, busy, maxThreads, threads, forkCount);
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public int getBusyExecutors() {
+        return busyExecutors;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getForkCount() {
+        return forkCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s threads, %s surefire forks (%s cores, %s busy executors, thread cap %s)",
+                threads, forkCount, cores, busyExecutors, maxThreads > 0 ? maxThreads : "none");
+    }
+
+    /**
+     * The number of processors of the node the callable runs on
+     */
+    public static class AvailableProcessors extends MasterToSlaveCallable<Integer, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Integer call() {
+            return Runtime.getRuntime().availableProcessors();
+        }
+
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.maven;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The modules of a maven reactor, see {@link ReactorReader}.
+ * <p>
+ * Maps the changed files of the workspace to the modules which need to be rebuilt.
+ *
+ * @author liaozan
+ * @since 2022/3/6
+ */
+public class MavenReactor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String MAVEN_CONFIG_DIRECTORY = ".mvn/";
+    private static final String ROOT_MODULE_PATH = "";
+
+    private final List<Module> modules;
+
+    MavenReactor(List<Module> modules) {
+        this.modules = new ArrayList<>(modules);
+        // the deepest module owning a file is found first
+        this.modules.sort(Comparator.comparingInt((Module module) -> module.path.length()).reversed());
+    }
+
+    public List<Module> getModules() {
+        return Collections.unmodifiableList(modules);
+    }
+
+    /**
+     * Select the modules affected by the changed files, the paths are relative to the directory of the root pom
+     */
+    public Selection select(Collection<String> changedPaths) {
+        Set<String> selectedModules = new TreeSet<>();
+        for (String changedPath : changedPaths) {
+            String path = normalize(changedPath);
+            if (path.startsWith(MAVEN_CONFIG_DIRECTORY)) {
+                return Selection.all("maven configuration changed: " + path);
+            }
+            Module owner = getOwner(path);
+            if (owner == null) {
+                continue;
+            }
+            if (owner.isPomPackaging()) {
+                if (path.equals(owner.pomFile)) {
+                    return Selection.all("parent pom changed: " + path);
+                }
+                // the other files of an aggregator, e.g. the documents, are not part of the build
+                continue;
+            }
+            selectedModules.add(owner.path);
+        }
+        if (selectedModules.isEmpty()) {
+            return Selection.all("no module is affected by the changes");
+        }
+        if (selectedModules.contains(ROOT_MODULE_PATH)) {
+            // a root module which is not a pom has no children, e.g. a single module project
+            return Selection.all("the root module changed");
+        }
+        return Selection.of(selectedModules);
+    }
+
+    private Module getOwner(String path) {
+        for (Module module : modules) {
+            if (module.path.equals(ROOT_MODULE_PATH) || path.equals(module.path) || path.startsWith(module.path + "/")) {
+                return module;
+            }
+        }
+        return null;
+    }
+
+    private static String normalize(String path) {
+        String normalized = path.replace('\\', '/');
+        while (normalized.startsWith("./") || normalized.startsWith("/")) {
+            normalized = normalized.substring(normalized.indexOf('/') + 1);
+        }
+        return normalized;
+    }
+
+    public static class Module implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final String pomFile;
+        private final String packaging;
+
+        /**
+         * @param path    the directory of the module relative to the root, empty for the root module
+         * @param pomFile the pom of the module relative to the root
+         */
+        Module(String path, String pomFile, String packaging) {
+            this.path = path;
+            this.pomFile = pomFile;
+            this.packaging = packaging;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getPomFile() {
+            return pomFile;
+        }
+
+        public String getPackaging() {
+            return packaging;
+        }
+
+        /**
+         * Parents and aggregators have the pom packaging, their changes may affect all their children
+         */
+        public boolean isPomPackaging() {
+            return "pom".equals(packaging);
+        }
+
+    }
+
+    public static class Selection {
+
+        private final String reason;
+        private final Set<String> modules;
+
+        private Selection(String reason, Set<String> modules) {
+            this.reason = reason;
+            this.modules = modules;
+        }
+
+        public static Selection all(String reason) {
+            return new Selection(reason, Collections.emptySet());
+        }
+
+        public static Selection of(Set<String> modules) {
+            return new Selection(null, Collections.unmodifiableSet(new TreeSet<>(modules)));
+        }
+
+        public boolean isFullBuild() {
+            return modules.isEmpty();
+        }
+
+        /**
+         * Why the whole reactor is built, null if only some modules are selected
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        public Set<String> getModules() {
+            return modules;
+        }
+
+        /**
+         * The maven arguments building the selected modules and the modules depending on them
+         */
+        public List<String> toMavenArguments() {
+            if (isFullBuild()) {
+                return Collections.emptyList();
+            }
+            List<String> projects = new ArrayList<>(modules.size());
+            for (String module : modules) {
+                projects.add(module.equals(ROOT_MODULE_PATH) ? "." : module);
+            }
+            return Arrays.asList("-pl", String.join(",", projects), "-amd");
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.maven;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Read the modules of the maven reactor on the build node, following the modules of the poms
+ * and of their profiles from the pom at the root of the directory.
+ * <p>
+ * Returns null if the directory has no pom.
+ *
+ * @author liaozan
+ * @since 2022/3/6
+ */
+public class ReactorReader extends MasterToSlaveFileCallable<MavenReactor> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String POM_FILE_NAME = "pom.xml";
+
+    @Override
+    public MavenReactor invoke(File directory, VirtualChannel channel) throws IOException {
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        Path rootPom = root.resolve(POM_FILE_NAME);
+        if (!Files.isRegularFile(rootPom)) {
+            return null;
+        }
+        DocumentBuilder documentBuilder = newDocumentBuilder();
+        List<MavenReactor.Module> modules = new ArrayList<>();
+        Set<Path> visited = new HashSet<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        pending.add(rootPom);
+        while (!pending.isEmpty()) {
+            Path pom = pending.poll();
+            if (!visited.add(pom)) {
+                continue;
+            }
+            Element project = parse(documentBuilder, pom);
+            String packaging = getChildText(project, "packaging", "jar");
+            modules.add(new MavenReactor.Module(relativize(root, pom.getParent()), relativize(root, pom), packaging));
+            for (String module : getModules(project)) {
+                Path modulePom = pom.getParent().resolve(module).normalize();
+                if (Files.isDirectory(modulePom)) {
+                    modulePom = modulePom.resolve(POM_FILE_NAME);
+                }
+                // modules out of the root directory can not be mapped to the changed files
+                if (Files.isRegularFile(modulePom) && modulePom.startsWith(root)) {
+                    pending.add(modulePom);
+                }
+            }
+        }
+        return new MavenReactor(modules);
+    }
+
+    private static List<String> getModules(Element project) {
+        List<String> modules = new ArrayList<>();
+        collectModules(project, modules);
+        Element profiles = getChild(project, "profiles");
+        if (profiles != null) {
+            for (Element profile : getChildren(profiles, "profile")) {
+                collectModules(profile, modules);
+            }
+        }
+        return modules;
+    }
+
+    private static void collectModules(Element parent, List<String> modules) {
+        Element moduleList = getChild(parent, "modules");
+        if (moduleList == null) {
+            return;
+        }
+        for (Element module : getChildren(moduleList, "module")) {
+            String name = module.getTextContent().trim();
+            if (!name.isEmpty()) {
+                modules.add(name);
+            }
+        }
+    }
+
+    private static Element parse(DocumentBuilder documentBuilder, Path pom) throws IOException {
+        try {
+            Document document = documentBuilder.parse(pom.toFile());
+            return document.getDocumentElement();
+        } catch (SAXException e) {
+            throw new IOException("could not parse " + pom, e);
+        }
+    }
+
+    private static DocumentBuilder newDocumentBuilder() throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            return factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String getChildText(Element parent, String name, String defaultValue) {
+        Element child = getChild(parent, name);
+        if (child == null) {
+            return defaultValue;
+        }
+        String text = child.getTextContent().trim();
+        return text.isEmpty() ? defaultValue : text;
+    }
+
+    private static Element getChild(Element parent, String name) {
+        List<Element> children = getChildren(parent, name);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private static List<Element> getChildren(Element parent, String name) {
+        List<Element> children = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(node.getNodeName())) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static String relativize(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.metrics;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.metrics.MetricsRegistry.Aggregate;
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Serve the aggregated stage metrics at /integration-metrics/json and /integration-metrics/prometheus,
+ * answered from memory without loading any build
+ *
+ * @author liaozan
+ * @since 2022/3/4
+ */
+@Extension
+@SuppressWarnings("unused")
+public class MetricsEndpoint implements RootAction {
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return "integration-metrics";
+    }
+
+    public void doJson(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.READ);
+        MetricsRegistry registry = MetricsRegistry.get();
+        JSONObject result = new JSONObject();
+        result.put("jobs", toJson("job", registry.getByJob()));
+        result.put("nodes", toJson("node", registry.getByNode()));
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(result.toString());
+    }
+
+    public void doPrometheus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.READ);
+        MetricsRegistry registry = MetricsRegistry.get();
+        rsp.setContentType("text/plain; version=0.0.4;charset=UTF-8");
+        PrintWriter writer = rsp.getWriter();
+        writePrometheus(writer, "job", registry.getByJob());
+        writePrometheus(writer, "node", registry.getByNode());
+        writer.flush();
+    }
+
+    private JSONArray toJson(String ownerLabel, Map<List<String>, Aggregate> aggregates) {
+        JSONArray array = new JSONArray();
+        for (Map.Entry<List<String>, Aggregate> entry : aggregates.entrySet()) {
+            Aggregate aggregate = entry.getValue();
+            JSONObject object = new JSONObject();
+            object.put(ownerLabel, entry.getKey().get(0));
+            object.put("stage", entry.getKey().get(1));
+            object.put("runs", aggregate.getRunsByState());
+            object.put("durationMillis", aggregate.getDurationMillis());
+            object.put("attempts", aggregate.getAttempts());
+            object.put("retries", aggregate.getRetries());
+            object.put("contextBytes", aggregate.getContextBytes());
+            object.put("pushedLayers", aggregate.getPushedLayers());
+            array.add(object);
+        }
+        return array;
+    }
+
+    void writePrometheus(PrintWriter writer, String ownerLabel, Map<List<String>, Aggregate> aggregates) {
+        String prefix = "integration_" + ownerLabel + "_stage_";
+        writeHelp(writer, prefix + "runs_total", "Finished stage runs by state");
+        for (Map.Entry<List<String>, Aggregate> entry : aggregates.entrySet()) {
+            for (Map.Entry<String, Long> runs : entry.getValue().getRunsByState().entrySet()) {
+                String labels = labels(ownerLabel, entry.getKey()) + ",state=\"" + escape(runs.getKey()) + "\"";
+                writer.println(prefix + "runs_total{" + labels + "} " + runs.getValue());
+            }
+        }
+        writeCounter(writer, prefix + "duration_seconds_total", "Wall time of the stage runs", ownerLabel, aggregates, aggregate -> aggregate.getDurationMillis() / 1000.0);
+        writeCounter(writer, prefix + "attempts_total", "Command attempts of the stage runs", ownerLabel, aggregates, Aggregate::getAttempts);
+        writeCounter(writer, prefix + "retries_total", "Command retries of the stage runs", ownerLabel, aggregates, Aggregate::getRetries);
+        writeCounter(writer, prefix + "context_bytes_total", "Docker build context sent by the stage runs", ownerLabel, aggregates, Aggregate::getContextBytes);
+        writeCounter(writer, prefix + "pushed_layers_total", "Docker layers pushed by the stage runs", ownerLabel, aggregates, Aggregate::getPushedLayers);
+    }
+
+    private void writeCounter(PrintWriter writer, String name, String help, String ownerLabel,
+                              Map<List<String>, Aggregate> aggregates, Function<Aggregate, Number> value) {
+        writeHelp(writer, name, help);
+        for (Map.Entry<List<String>, Aggregate> entry : aggregates.entrySet()) {
+            writer.println(name + "{" + labels(ownerLabel, entry.getKey()) + "} " + value.apply(entry.getValue()));
+        }
+    }
+
+    private void writeHelp(PrintWriter writer, String name, String help) {
+        writer.println("# HELP " + name + " " + help);
+        writer.println("# TYPE " + name + " counter");
+    }
+
+    private String labels(String ownerLabel, List<String> key) {
+        return ownerLabel + "=\"" + escape(key.get(0)) + "\",stage=\"" + escape(key.get(1)) + "\"";
+    }
+
+    /**
+     * Escape a label value of the Prometheus text format
+     */
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
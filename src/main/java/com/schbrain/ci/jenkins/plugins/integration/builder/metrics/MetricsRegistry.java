@@ -0,0 +1,95 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stage metrics aggregated per job and per node since the controller started
+ *
+ * @author liaozan
+ * @since 2022/3/4
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentMap<List<String>, Aggregate> byJob = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<String>, Aggregate> byNode = new ConcurrentHashMap<>();
+
+    public static MetricsRegistry get() {
+        return INSTANCE;
+    }
+
+    public void record(String job, String node, List<StageMetrics> stages) {
+        for (StageMetrics stage : stages) {
+            byJob.computeIfAbsent(Arrays.asList(job, stage.getName()), key -> new Aggregate()).add(stage);
+            byNode.computeIfAbsent(Arrays.asList(node, stage.getName()), key -> new Aggregate()).add(stage);
+        }
+    }
+
+    /**
+     * Aggregates keyed by job full name and stage name
+     */
+    public Map<List<String>, Aggregate> getByJob() {
+        return sorted(byJob);
+    }
+
+    /**
+     * Aggregates keyed by node name and stage name
+     */
+    public Map<List<String>, Aggregate> getByNode() {
+        return sorted(byNode);
+    }
+
+    private static Map<List<String>, Aggregate> sorted(Map<List<String>, Aggregate> aggregates) {
+        Map<List<String>, Aggregate> result = new TreeMap<>(Comparator.comparing((List<String> key) -> key.get(0)).thenComparing(key -> key.get(1)));
+        result.putAll(aggregates);
+        return result;
+    }
+
+    public static class Aggregate {
+
+        private final Map<String, Long> runsByState = new TreeMap<>();
+        private long durationMillis;
+        private long attempts;
+        private long retries;
+        private long contextBytes;
+        private long pushedLayers;
+
+        synchronized void add(StageMetrics stage) {
+            runsByState.merge(String.valueOf(stage.getState()), 1L, Long::sum);
+            durationMillis += stage.getDurationMillis();
+            attempts += stage.getAttempts();
+            retries += stage.getRetries();
+            contextBytes += stage.getContextBytes();
+            pushedLayers += stage.getPushedLayers();
+        }
+
+        public synchronized Map<String, Long> getRunsByState() {
+            return new TreeMap<>(runsByState);
+        }
+
+        public synchronized long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public synchronized long getAttempts() {
+            return attempts;
+        }
+
+        public synchronized long getRetries() {
+            return retries;
+        }
+
+        public synchronized long getContextBytes() {
+            return contextBytes;
+        }
+
+        public synchronized long getPushedLayers() {
+            return pushedLayers;
+        }
+
+    }
+
+}
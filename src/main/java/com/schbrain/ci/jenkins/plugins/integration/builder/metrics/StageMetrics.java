@@ -0,0 +1,99 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.metrics;
+
+/**
+ * What a build stage did: how long it took, how it ended, how many attempts its commands needed
+ * and how much it transferred, where known.
+ * <p>
+ * The stage being run is bound to its thread, and to the threads it starts, so that the commands can report to it
+ * without knowing which stage they belong to.
+ *
+ * @author liaozan
+ * @since 2022/3/4
+ */
+public class StageMetrics {
+
+    private static final InheritableThreadLocal<StageMetrics> CURRENT = new InheritableThreadLocal<>();
+
+    private final String name;
+
+    private String state;
+    private long durationMillis;
+    private int commands;
+    private int attempts;
+    private long contextBytes;
+    private int pushedLayers;
+
+    public StageMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * The metrics of the stage running on the current thread, a detached instance if there is none
+     */
+    public static StageMetrics current() {
+        StageMetrics metrics = CURRENT.get();
+        return metrics == null ? new StageMetrics("detached") : metrics;
+    }
+
+    public static void bind(StageMetrics metrics) {
+        CURRENT.set(metrics);
+    }
+
+    public static void unbind() {
+        CURRENT.remove();
+    }
+
+    public synchronized void recordCommand(int attempts) {
+        this.commands++;
+        this.attempts += attempts;
+    }
+
+    public synchronized void recordContextBytes(long contextBytes) {
+        this.contextBytes += contextBytes;
+    }
+
+    public synchronized void recordPushedLayers(int pushedLayers) {
+        this.pushedLayers += pushedLayers;
+    }
+
+    public synchronized void complete(String state, long durationMillis) {
+        this.state = state;
+        this.durationMillis = durationMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized String getState() {
+        return state;
+    }
+
+    public synchronized long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public synchronized int getCommands() {
+        return commands;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * The attempts beyond the first one of each command
+     */
+    public synchronized int getRetries() {
+        return attempts - commands;
+    }
+
+    public synchronized long getContextBytes() {
+        return contextBytes;
+    }
+
+    public synchronized int getPushedLayers() {
+        return pushedLayers;
+    }
+
+}
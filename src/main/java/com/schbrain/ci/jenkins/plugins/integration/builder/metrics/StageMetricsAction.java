@@ -0,0 +1,37 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.metrics;
+
+import hudson.model.InvisibleAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The stage metrics of a build, shown as a table on the build page
+ *
+ * @author liaozan
+ * @since 2022/3/4
+ */
+public class StageMetricsAction extends InvisibleAction {
+
+    private final String node;
+    private final List<StageMetrics> stages;
+
+    public StageMetricsAction(String node, List<StageMetrics> stages) {
+        this.node = node;
+        this.stages = new ArrayList<>(stages);
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public List<StageMetrics> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    public static String formatDuration(long millis) {
+        return String.format("%.1fs", millis / 1000.0);
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.util;
+
+import java.util.*;
+
+/**
+ * A template parsed into literal and placeholder segments, placeholders look like {@code {NAME}}.
+ * <p>
+ * Instances are immutable and may be shared between builds, see {@link TemplateUtils#compile(String)}.
+ *
+ * @author liaozan
+ * @since 2022/2/14
+ */
+public class CompiledTemplate {
+
+    private final List<Segment> segments;
+    private final int literalLength;
+
+    private CompiledTemplate(List<Segment> segments, int literalLength) {
+        this.segments = segments;
+        this.literalLength = literalLength;
+    }
+
+    public static CompiledTemplate compile(String template) {
+        List<Segment> segments = new ArrayList<>();
+        int literalLength = 0;
+        int literalStart = 0;
+        int index = template.indexOf('{');
+        while (index >= 0) {
+            int end = placeholderEnd(template, index);
+            if (end < 0) {
+                index = template.indexOf('{', index + 1);
+                continue;
+            }
+            if (index > literalStart) {
+                segments.add(Segment.literal(template.substring(literalStart, index)));
+                literalLength += index - literalStart;
+            }
+            segments.add(Segment.placeholder(template.substring(index + 1, end)));
+            literalStart = end + 1;
+            index = template.indexOf('{', literalStart);
+        }
+        if (literalStart < template.length()) {
+            segments.add(Segment.literal(template.substring(literalStart)));
+            literalLength += template.length() - literalStart;
+        }
+        return new CompiledTemplate(Collections.unmodifiableList(segments), literalLength);
+    }
+
+    /**
+     * @return the index of the closing brace, or -1 if the brace at start does not open a placeholder
+     */
+    private static int placeholderEnd(String template, int start) {
+        int index = start + 1;
+        while (index < template.length() && isPlaceholderChar(template.charAt(index))) {
+            index++;
+        }
+        if (index == start + 1 || index == template.length() || template.charAt(index) != '}') {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Any entry key can be a placeholder, as long as it stays on one line and has no brace
+     */
+    private static boolean isPlaceholderChar(char c) {
+        return c != '{' && c != '}' && c != '\n';
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * Render the template into the given buffer, placeholders without a value are kept as they are
+     */
+    public Result render(Map<String, String> variables, StringBuilder buffer) {
+        buffer.setLength(0);
+        buffer.ensureCapacity(literalLength);
+        Set<String> unresolved = null;
+        for (Segment segment : segments) {
+            if (!segment.isPlaceholder()) {
+                buffer.append(segment.getText());
+                continue;
+            }
+            String value = variables == null ? null : variables.get(segment.getText());
+            if (value != null) {
+                buffer.append(value);
+                continue;
+            }
+            buffer.append('{').append(segment.getText()).append('}');
+            if (unresolved == null) {
+                unresolved = new LinkedHashSet<>();
+            }
+            unresolved.add(segment.getText());
+        }
+        return new Result(buffer.toString(), unresolved == null ? Collections.emptySet() : unresolved);
+    }
+
+    public static class Segment {
+
+        private final String text;
+        private final boolean placeholder;
+
+        private Segment(String text, boolean placeholder) {
+            this.text = text;
+            this.placeholder = placeholder;
+        }
+
+        static Segment literal(String text) {
+            return new Segment(text, false);
+        }
+
+        static Segment placeholder(String name) {
+            return new Segment(name, true);
+        }
+
+        /**
+         * The literal text, or the placeholder name without braces
+         */
+        public String getText() {
+            return text;
+        }
+
+        public boolean isPlaceholder() {
+            return placeholder;
+        }
+
+    }
+
+    public static class Result {
+
+        private final String content;
+        private final Set<String> unresolvedPlaceholders;
+
+        private Result(String content, Set<String> unresolvedPlaceholders) {
+            this.content = content;
+            this.unresolvedPlaceholders = unresolvedPlaceholders;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public Set<String> getUnresolvedPlaceholders() {
+            return unresolvedPlaceholders;
+        }
+
+    }
+
+}
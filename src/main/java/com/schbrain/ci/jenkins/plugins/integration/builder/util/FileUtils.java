@@ -3,16 +3,21 @@ package com.schbrain.ci.jenkins.plugins.integration.builder.util;
 import com.schbrain.ci.jenkins.plugins.integration.builder.BuilderContext;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,11 +31,11 @@ import java.util.Properties;
 public class FileUtils {
 
     /**
-     * lookup the special file
+     * lookup the special file through the workspace index of current build
      */
     @CheckForNull
     public static FilePath lookupFile(BuilderContext context, String fileName) throws IOException, InterruptedException {
-        return lookupFile(context.getWorkspace(), fileName, context.getLogger());
+        return lookupFile(context.getFileIndex(), fileName, context.getLogger());
     }
 
     /**
@@ -38,22 +43,82 @@ public class FileUtils {
      */
     @CheckForNull
     public static FilePath lookupFile(FilePath workspace, String fileName, Logger logger) throws IOException, InterruptedException {
-        if (workspace == null || !workspace.exists()) {
-            logger.println("workspace not exist", true);
+        return lookupFile(new WorkspaceFileIndex(workspace, null), fileName, logger);
+    }
+
+    /**
+     * lookup the special file
+     */
+    @CheckForNull
+    public static FilePath lookupFile(WorkspaceFileIndex fileIndex, String fileName, Logger logger) throws IOException, InterruptedException {
+        FilePath workspace = fileIndex.getWorkspace();
+        if (workspace == null) {
+            logger.warn("workspace not exist");
             return null;
         }
-        FilePath[] fileList = workspace.list("**/" + fileName);
-        if (fileList.length == 0) {
-            logger.println("could not found matched file: %s", fileName);
+        FilePath matchedFile = fileIndex.lookup(fileName);
+        if (matchedFile == null) {
+            logger.warn("could not found matched file: %s", fileName);
             return null;
         }
-        FilePath matchedFile = getTheClosestFile(fileList);
         String relativePath = toRelativePath(workspace, matchedFile);
-        String fileContent = matchedFile.readToString();
-        logger.println("looking for the file of %s found at %s", fileName, relativePath, fileContent);
+        logger.debug("looking for the file of %s found at %s", fileName, relativePath);
         return matchedFile;
     }
 
+    /**
+     * lookup the special file through the workspace index of current build and read it as requested,
+     * in at most one remoting call
+     */
+    @CheckForNull
+    public static RemoteFileLookup.Match lookupFile(BuilderContext context, String fileName, RemoteFileLookup.Read read) throws IOException, InterruptedException {
+        RemoteFileLookup lookup = newLookup(context);
+        switch (read) {
+            case CONTENT:
+                lookup.read(fileName);
+                break;
+            case PROPERTIES:
+                lookup.readProperties(fileName);
+                break;
+            default:
+                lookup.find(fileName);
+                break;
+        }
+        RemoteFileLookup.Result result = lookupFiles(context, lookup);
+        return result == null ? null : result.get(fileName);
+    }
+
+    /**
+     * A lookup of the workspace of current build, skipping the excluded files of the workspace index
+     */
+    public static RemoteFileLookup newLookup(BuilderContext context) {
+        return new RemoteFileLookup(context.getFileIndex().getExcludes());
+    }
+
+    /**
+     * lookup and read the files of the workspace through the workspace index of current build, in at most one remoting call
+     *
+     * @return null if the workspace does not exist
+     */
+    @CheckForNull
+    public static RemoteFileLookup.Result lookupFiles(BuilderContext context, RemoteFileLookup lookup) throws IOException, InterruptedException {
+        Logger logger = context.getLogger();
+        RemoteFileLookup.Result result = context.getFileIndex().lookup(lookup);
+        if (result == null || !result.isWorkspaceExists()) {
+            logger.warn("workspace not exist");
+            return null;
+        }
+        for (String fileName : lookup.getFileNames()) {
+            RemoteFileLookup.Match match = result.get(fileName);
+            if (match == null) {
+                logger.warn("could not found matched file: %s", fileName);
+            } else {
+                logger.debug("looking for the file of %s found at %s", fileName, match.getRelativePath());
+            }
+        }
+        return result;
+    }
+
     public static String toRelativePath(FilePath root, FilePath filePath) {
         Path rootPath = Paths.get(root.getRemote());
         Path targetFilePath = Paths.get(filePath.getRemote());
@@ -61,8 +126,12 @@ public class FileUtils {
     }
 
     public static FilePath getTheClosestFile(FilePath[] fileList) {
-        FilePath matched = fileList[0];
-        if (fileList.length == 1) {
+        return getTheClosestFile(Arrays.asList(fileList));
+    }
+
+    public static FilePath getTheClosestFile(List<FilePath> fileList) {
+        FilePath matched = fileList.get(0);
+        if (fileList.size() == 1) {
             return matched;
         }
 
@@ -102,21 +171,62 @@ public class FileUtils {
         }
     }
 
-    public static void writeUtf8Map(Map<String, String> variables, File file, String delimiter) {
+    /**
+     * Write the variables to a sibling temp file and move it over the target, readers never see a partial file
+     */
+    public static void writeUtf8Properties(Map<String, String> variables, File file) {
+        Properties properties = new Properties();
+        for (Entry<String, String> entry : variables.entrySet()) {
+            if (entry.getValue() != null) {
+                properties.setProperty(entry.getKey(), entry.getValue());
+            }
+        }
+        Path targetPath = file.toPath();
+        Path tempPath = null;
         try {
-            Path filePath = getFilePath(file.getPath());
-            BufferedWriter writer = Files.newBufferedWriter(filePath);
-            for (Entry<String, String> entry : variables.entrySet()) {
-                String content = String.format("{%s}{%s}{%s}", entry.getKey(), delimiter, entry.getValue());
-                writer.write(content);
-                writer.newLine();
-                writer.flush();
+            tempPath = Files.createTempFile(targetPath.toAbsolutePath().getParent(), file.getName(), ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
             }
+            Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
             throw new IllegalStateException(e);
+        } finally {
+            deleteQuietly(tempPath);
         }
     }
 
+    public static Map<String, String> readUtf8Properties(File file) {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        Map<String, String> result = new HashMap<>();
+        for (String propertyName : properties.stringPropertyNames()) {
+            result.put(propertyName, properties.getProperty(propertyName));
+        }
+        return result;
+    }
+
+    /**
+     * Write the variables on the node of the file, in a single remoting call
+     */
+    public static void writeUtf8Properties(Map<String, String> variables, FilePath file) throws IOException, InterruptedException {
+        file.act(new WritePropertiesCallable(variables));
+    }
+
+    /**
+     * Read the variables on the node of the file, in a single remoting call
+     *
+     * @return null if the file does not exist
+     */
+    @CheckForNull
+    public static Map<String, String> readUtf8Properties(FilePath file) throws IOException, InterruptedException {
+        return file.act(new ReadPropertiesCallable());
+    }
+
     public static List<String> readUtf8Lines(File file) {
         try {
             Path filePath = getFilePath(file.getPath());
@@ -126,6 +236,47 @@ public class FileUtils {
         }
     }
 
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static class WritePropertiesCallable extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, String> variables;
+
+        private WritePropertiesCallable(Map<String, String> variables) {
+            this.variables = new HashMap<>(variables);
+        }
+
+        @Override
+        public Void invoke(File file, VirtualChannel channel) throws IOException {
+            Files.createDirectories(file.toPath().toAbsolutePath().getParent());
+            writeUtf8Properties(variables, file);
+            return null;
+        }
+
+    }
+
+    private static class ReadPropertiesCallable extends MasterToSlaveFileCallable<Map<String, String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Map<String, String> invoke(File file, VirtualChannel channel) {
+            return file.isFile() ? readUtf8Properties(file) : null;
+        }
+
+    }
+
     private static Path getFilePath(String path) throws IOException {
         Path filePath = Paths.get(path);
         if (Files.notExists(filePath)) {
@@ -1,48 +1,159 @@
 package com.schbrain.ci.jenkins.plugins.integration.builder.util;
 
+import org.apache.commons.lang.StringUtils;
+
 import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
 
 /**
+ * The build log of the plugin.
+ * <p>
+ * Messages below the threshold level are dropped before being formatted,
+ * the templates are only formatted when arguments are given, so the content may contain {@code %}.
+ *
  * @author liaozan
  * @since 2022/1/20
  */
 public class Logger extends PrintStream {
 
+    public static final int DEFAULT_DUMP_LIMIT = 4096;
+
+    private static final Object[] NO_ARGS = new Object[0];
+
     private final PrintStream delegate;
+    private final Level threshold;
+    private final int dumpLimit;
 
-    private Logger(PrintStream delegate) {
+    private Logger(PrintStream delegate, Level threshold, int dumpLimit) {
         super(delegate);
         this.delegate = delegate;
+        this.threshold = threshold;
+        this.dumpLimit = dumpLimit;
     }
 
     public static Logger of(PrintStream delegate) {
-        return new Logger(delegate);
+        return of(delegate, Level.INFO, DEFAULT_DUMP_LIMIT);
+    }
+
+    /**
+     * @param dumpLimit how many characters of a dumped content are printed, 0 to print none
+     */
+    public static Logger of(PrintStream delegate, Level threshold, int dumpLimit) {
+        return new Logger(delegate, threshold == null ? Level.INFO : threshold, Math.max(dumpLimit, 0));
+    }
+
+    /**
+     * A logger with the same settings writing to another stream
+     */
+    public Logger withDelegate(PrintStream delegate) {
+        return new Logger(delegate, threshold, dumpLimit);
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    public int getDumpLimit() {
+        return dumpLimit;
     }
 
     public void println(String content, Object... args) {
-        println(content, true, args);
+        log(Level.INFO, true, content, args);
     }
 
     public void println(String content, boolean format, Object... args) {
-        content = String.format(content, args);
-        println(content, format);
+        log(Level.INFO, format, content, args);
     }
 
     public void println(String content, boolean format) {
-        if (format) {
-            String wrappedContent = "|| " + content + " ||";
-            StringBuilder wrapperLine = new StringBuilder();
-            for (int i = 0; i < wrappedContent.length(); i++) {
-                wrapperLine.append("=");
-            }
-            delegate.println();
-            delegate.println(wrapperLine);
-            delegate.println(wrappedContent);
-            delegate.println(wrapperLine);
-            delegate.println();
+        log(Level.INFO, format, content, NO_ARGS);
+    }
+
+    public void debug(String template, Object... args) {
+        log(Level.DEBUG, false, template, args);
+    }
+
+    public void warn(String template, Object... args) {
+        log(Level.WARN, true, template, args);
+    }
+
+    public void error(String template, Object... args) {
+        log(Level.ERROR, true, template, args);
+    }
+
+    /**
+     * @param banner whether the message is wrapped in a banner
+     */
+    public void log(Level level, boolean banner, String template, Object... args) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        String message = formatMessage(template, args);
+        if (level != Level.INFO) {
+            message = "[" + level + "] " + message;
+        }
+        if (banner) {
+            String wrappedContent = "|| " + message + " ||";
+            String wrapperLine = StringUtils.repeat("=", wrappedContent.length());
+            String lineSeparator = System.lineSeparator();
+            // a single write keeps the banner together when stages log concurrently
+            delegate.print(lineSeparator + wrapperLine + lineSeparator + wrappedContent + lineSeparator + wrapperLine + lineSeparator + lineSeparator);
         } else {
-            delegate.println(content);
+            delegate.println(message);
+        }
+    }
+
+    /**
+     * Print a large content, truncated to the dump limit
+     *
+     * @param fullContentLocation where the full content can be found when truncated, may be null
+     * @return whether the content was truncated
+     */
+    public boolean dump(String title, String content, String fullContentLocation) {
+        return dump(title, content, content.length(), fullContentLocation);
+    }
+
+    /**
+     * Print the head of a large content, truncated to the dump limit
+     *
+     * @param head   the beginning of the content, may be the full content
+     * @param length the length of the full content
+     * @return whether the content was truncated
+     */
+    public boolean dump(String title, String head, int length, String fullContentLocation) {
+        int printedLength = Math.min(Math.min(head.length(), length), dumpLimit);
+        if (!isEnabled(Level.INFO)) {
+            return printedLength < length;
+        }
+        if (printedLength == length) {
+            delegate.println(title + ":" + System.lineSeparator() + head.substring(0, printedLength));
+            return false;
         }
+        String omitted = String.format("(%s of %s characters omitted%s)", length - printedLength, length,
+                fullContentLocation == null ? "" : ", full content archived as " + fullContentLocation);
+        if (printedLength == 0) {
+            delegate.println(title + ": " + omitted);
+        } else {
+            delegate.println(title + ":" + System.lineSeparator() + head.substring(0, printedLength) + System.lineSeparator() + "... " + omitted);
+        }
+        return true;
+    }
+
+    private static String formatMessage(String template, Object... args) {
+        if (args == null || args.length == 0) {
+            return template;
+        }
+        try {
+            return String.format(template, args);
+        } catch (IllegalFormatException e) {
+            // the template is not meant to be formatted, e.g. it contains a literal %
+            return template + " " + Arrays.toString(args);
+        }
+    }
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
     }
 
 }
@@ -0,0 +1,95 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.util;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run named tasks concurrently with a bounded parallelism, every task runs to the end even if others fail
+ *
+ * @author liaozan
+ * @since 2022/2/16
+ */
+public class ParallelTasks {
+
+    public static List<Result> run(String name, Map<String, Callable<?>> tasks, int parallelism) throws InterruptedException {
+        if (tasks.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int threads = Math.max(1, Math.min(parallelism, tasks.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, newThreadFactory(name));
+        try {
+            Map<String, Future<Result>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, Callable<?>> task : tasks.entrySet()) {
+                futures.put(task.getKey(), executor.submit(() -> execute(task.getKey(), task.getValue())));
+            }
+            List<Result> results = new ArrayList<>(futures.size());
+            for (Future<Result> future : futures.values()) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // execute never throws
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            // interrupts the running tasks if the build has been aborted
+            executor.shutdownNow();
+        }
+    }
+
+    private static Result execute(String name, Callable<?> task) {
+        long start = System.currentTimeMillis();
+        Throwable failure = null;
+        try {
+            task.call();
+        } catch (Throwable e) {
+            failure = e;
+        }
+        return new Result(name, failure, System.currentTimeMillis() - start);
+    }
+
+    private static ThreadFactory newThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "integration-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public static class Result {
+
+        private final String name;
+        private final Throwable failure;
+        private final long durationMillis;
+
+        Result(String name, @CheckForNull Throwable failure, long durationMillis) {
+            this.name = name;
+            this.failure = failure;
+            this.durationMillis = durationMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @CheckForNull
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+    }
+
+}
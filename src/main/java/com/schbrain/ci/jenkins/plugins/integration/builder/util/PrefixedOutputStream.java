@@ -0,0 +1,33 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.util;
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Prefix every line, used to tell apart the output of the branches which share the build log
+ *
+ * @author liaozan
+ * @since 2022/2/16
+ */
+public class PrefixedOutputStream extends LineTransformationOutputStream.Delegating {
+
+    private final byte[] prefix;
+
+    public PrefixedOutputStream(String prefix, OutputStream out) {
+        super(out);
+        this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        byte[] line = new byte[prefix.length + len];
+        System.arraycopy(prefix, 0, line, 0, prefix.length);
+        System.arraycopy(b, 0, line, prefix.length, len);
+        // write the whole line at once, so that lines of concurrent branches are not interleaved
+        out.write(line);
+    }
+
+}
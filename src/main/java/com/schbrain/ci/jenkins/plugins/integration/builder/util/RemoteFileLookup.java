@@ -0,0 +1,260 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.util;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Look up files by name in the workspace and read them, on the build node and in a single remoting call.
+ * <p>
+ * The matches are relative to the workspace and ordered from the closest to the workspace root, only the closest
+ * match of a name is read. Unless the lookup comes with the paths of the queried names, the names are matched against
+ * an index of the whole workspace which is kept on the build node under the key of the lookup, the workspace is only
+ * walked if the node has no index of the key yet. Only the paths of the queried names are sent back, see {@link WorkspaceFileIndex}.
+ *
+ * @author liaozan
+ * @since 2022/3/8
+ */
+public class RemoteFileLookup extends MasterToSlaveFileCallable<RemoteFileLookup.Result> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_NODE_INDEXES = 16;
+
+    /**
+     * The indexes of the workspaces walked on this node by key, the least recently used is dropped first
+     */
+    private static final Map<String, Map<String, List<String>>> NODE_INDEXES = Collections.synchronizedMap(
+            new LinkedHashMap<String, Map<String, List<String>>>(MAX_NODE_INDEXES, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, List<String>>> eldest) {
+                    return size() > MAX_NODE_INDEXES;
+                }
+
+            });
+
+    private final String excludes;
+    private final LinkedHashMap<String, Read> queries = new LinkedHashMap<>();
+
+    private HashMap<String, ArrayList<String>> indexedPaths;
+    private String indexKey;
+    private String discardedIndexKey;
+
+    /**
+     * @param excludes the ant style patterns of the skipped files, see {@link WorkspaceFileIndex#getExcludes()}
+     */
+    public RemoteFileLookup(String excludes) {
+        this.excludes = excludes;
+    }
+
+    public RemoteFileLookup find(String fileName) {
+        return query(fileName, Read.NONE);
+    }
+
+    public RemoteFileLookup read(String fileName) {
+        return query(fileName, Read.CONTENT);
+    }
+
+    public RemoteFileLookup readProperties(String fileName) {
+        return query(fileName, Read.PROPERTIES);
+    }
+
+    private RemoteFileLookup query(String fileName, Read read) {
+        queries.put(fileName, read);
+        return this;
+    }
+
+    public Set<String> getFileNames() {
+        return Collections.unmodifiableSet(queries.keySet());
+    }
+
+    /**
+     * Whether a file has to be read, otherwise the lookup can be answered by the index alone
+     */
+    boolean isReading() {
+        return queries.containsValue(Read.CONTENT) || queries.containsValue(Read.PROPERTIES);
+    }
+
+    /**
+     * Take the paths of the queried names from the index instead of walking the workspace
+     *
+     * @param index the relative paths of the workspace files by name, the closest first
+     */
+    RemoteFileLookup withIndex(Map<String, List<String>> index) {
+        indexedPaths = new HashMap<>();
+        for (String fileName : queries.keySet()) {
+            List<String> relativePaths = index.get(fileName);
+            if (relativePaths != null) {
+                indexedPaths.put(fileName, new ArrayList<>(relativePaths));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Match the queried names against the index kept on the build node
+     *
+     * @param indexKey          the key of the workspace index, the workspace is walked if the node has no index of the key
+     * @param discardedIndexKey the key of an invalidated index which is dropped from the node
+     */
+    RemoteFileLookup withIndexKey(String indexKey, @CheckForNull String discardedIndexKey) {
+        this.indexKey = indexKey;
+        this.discardedIndexKey = discardedIndexKey;
+        return this;
+    }
+
+    @Override
+    public Result invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        if (discardedIndexKey != null) {
+            NODE_INDEXES.remove(discardedIndexKey);
+        }
+        if (!workspace.isDirectory()) {
+            return new Result(false, Collections.emptyMap());
+        }
+        if (indexedPaths != null) {
+            return resolve(workspace, indexedPaths);
+        }
+        Map<String, List<String>> index = indexKey == null ? null : NODE_INDEXES.get(indexKey);
+        if (index == null) {
+            index = scan(workspace);
+            if (indexKey != null) {
+                NODE_INDEXES.put(indexKey, index);
+            }
+        }
+        return resolve(workspace, index);
+    }
+
+    /**
+     * Match the queried names against the given paths, the closest files are read on the node the workspace is on
+     *
+     * @param workspace the local workspace, only used to read the files
+     */
+    Result resolve(@CheckForNull File workspace, Map<String, ? extends List<String>> relativePathsByName) throws IOException {
+        Map<String, Match> matches = new HashMap<>();
+        for (Map.Entry<String, Read> query : queries.entrySet()) {
+            List<String> relativePaths = relativePathsByName.get(query.getKey());
+            if (relativePaths == null || relativePaths.isEmpty()) {
+                continue;
+            }
+            String content = null;
+            Map<String, String> properties = null;
+            if (query.getValue() != Read.NONE) {
+                File closestFile = new File(workspace, relativePaths.get(0));
+                if (!closestFile.isFile()) {
+                    // removed since the workspace was indexed
+                    continue;
+                }
+                if (query.getValue() == Read.CONTENT) {
+                    content = new String(Files.readAllBytes(closestFile.toPath()), StandardCharsets.UTF_8);
+                } else {
+                    properties = FileUtils.readUtf8Properties(closestFile);
+                }
+            }
+            matches.put(query.getKey(), new Match(relativePaths, content, properties));
+        }
+        return new Result(true, matches);
+    }
+
+    private Map<String, List<String>> scan(File workspace) throws IOException, InterruptedException {
+        Path root = workspace.toPath();
+        Map<String, List<String>> index = new HashMap<>();
+        // a local file path, the walk does not leave the node
+        for (FilePath file : new FilePath(workspace).list("**/*", excludes)) {
+            String relativePath = root.relativize(new File(file.getRemote()).toPath()).toString();
+            index.computeIfAbsent(file.getName(), key -> new ArrayList<>(1)).add(relativePath);
+        }
+        for (List<String> relativePaths : index.values()) {
+            relativePaths.sort(Comparator.comparingInt(String::length));
+        }
+        return index;
+    }
+
+    public enum Read {
+        NONE, CONTENT, PROPERTIES
+    }
+
+    public static class Result implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean workspaceExists;
+        private final HashMap<String, Match> matches;
+
+        private Result(boolean workspaceExists, Map<String, Match> matches) {
+            this.workspaceExists = workspaceExists;
+            this.matches = new HashMap<>(matches);
+        }
+
+        public boolean isWorkspaceExists() {
+            return workspaceExists;
+        }
+
+        /**
+         * @return null if no file has the name
+         */
+        @CheckForNull
+        public Match get(String fileName) {
+            return matches.get(fileName);
+        }
+
+    }
+
+    public static class Match implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<String> relativePaths;
+        private final String content;
+        private final HashMap<String, String> properties;
+
+        private Match(List<String> relativePaths, String content, Map<String, String> properties) {
+            this.relativePaths = new ArrayList<>(relativePaths);
+            this.content = content;
+            this.properties = properties == null ? null : new HashMap<>(properties);
+        }
+
+        /**
+         * The path of the closest file, relative to the workspace
+         */
+        public String getRelativePath() {
+            return relativePaths.get(0);
+        }
+
+        /**
+         * The paths of all the files with the name, the closest first
+         */
+        public List<String> getRelativePaths() {
+            return Collections.unmodifiableList(relativePaths);
+        }
+
+        /**
+         * The content of the closest file, null if it was not read
+         */
+        @CheckForNull
+        public String getContent() {
+            return content;
+        }
+
+        /**
+         * The properties of the closest file, null if they were not read
+         */
+        @CheckForNull
+        public Map<String, String> getProperties() {
+            return properties == null ? null : Collections.unmodifiableMap(properties);
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pass the output through and keep its last bytes, so that a failure can be classified after the command exited
+ *
+ * @author liaozan
+ * @since 2022/3/3
+ */
+public class TailOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final byte[] buffer;
+
+    private int position;
+    private boolean wrapped;
+
+    public TailOutputStream(OutputStream out, int capacity) {
+        this.out = out;
+        this.buffer = new byte[capacity];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        keep((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        int start = Math.max(off, off + len - buffer.length);
+        for (int i = start; i < off + len; i++) {
+            keep(b[i]);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * The stream being passed through is owned by the caller
+     */
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+
+    public synchronized String getTail() {
+        if (!wrapped) {
+            return new String(buffer, 0, position, StandardCharsets.UTF_8);
+        }
+        byte[] tail = new byte[buffer.length];
+        System.arraycopy(buffer, position, tail, 0, buffer.length - position);
+        System.arraycopy(buffer, 0, tail, buffer.length - position, position);
+        return new String(tail, StandardCharsets.UTF_8);
+    }
+
+    private synchronized void keep(byte b) {
+        buffer[position++] = b;
+        if (position == buffer.length) {
+            position = 0;
+            wrapped = true;
+        }
+    }
+
+}
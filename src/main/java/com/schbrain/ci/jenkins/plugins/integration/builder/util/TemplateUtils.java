@@ -1,7 +1,12 @@
 package com.schbrain.ci.jenkins.plugins.integration.builder.util;
 
-import org.apache.commons.lang3.StringUtils;
+import hudson.Util;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -10,6 +15,23 @@ import java.util.Map;
  */
 public class TemplateUtils {
 
+    private static final int MAX_CACHED_TEMPLATES = 32;
+
+    /**
+     * Buffers larger than this are not kept for the next render
+     */
+    private static final int MAX_REUSED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final Map<String, CompiledTemplate> COMPILED_TEMPLATES = Collections.synchronizedMap(
+            new LinkedHashMap<String, CompiledTemplate>(MAX_CACHED_TEMPLATES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompiledTemplate> eldest) {
+                    return size() > MAX_CACHED_TEMPLATES;
+                }
+            });
+
+    private static final ThreadLocal<StringBuilder> RENDER_BUFFER = ThreadLocal.withInitial(StringBuilder::new);
+
     public static String format(String template, Map<String, String> map) {
         if (null == template) {
             return null;
@@ -17,16 +39,44 @@ public class TemplateUtils {
         if (null == map || map.isEmpty()) {
             return template;
         }
+        return render(template, map).getContent();
+    }
 
-        String replaced = template;
-        for (Map.Entry<String, String> entry : map.entrySet()) {
-            String value = entry.getValue();
-            if (null == entry.getValue()) {
-                continue;
+    /**
+     * Render the template in one pass, the result also carries the placeholders which have no value
+     */
+    public static CompiledTemplate.Result render(String template, Map<String, String> variables) {
+        CompiledTemplate compiledTemplate = compile(template);
+        StringBuilder buffer = RENDER_BUFFER.get();
+        try {
+            return compiledTemplate.render(variables, buffer);
+        } finally {
+            if (buffer.capacity() > MAX_REUSED_BUFFER_SIZE) {
+                RENDER_BUFFER.remove();
             }
-            replaced = StringUtils.replace(replaced, "{" + entry.getKey() + "}", value);
         }
-        return replaced;
+    }
+
+    /**
+     * Compile the template, compiled templates are cached by the hash of the template content
+     */
+    public static CompiledTemplate compile(String template) {
+        String contentHash = sha256(template);
+        CompiledTemplate compiledTemplate = COMPILED_TEMPLATES.get(contentHash);
+        if (compiledTemplate == null) {
+            compiledTemplate = CompiledTemplate.compile(template);
+            COMPILED_TEMPLATES.put(contentHash, compiledTemplate);
+        }
+        return compiledTemplate;
+    }
+
+    private static String sha256(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Util.toHexString(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
 }
@@ -0,0 +1,142 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.util;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Index of the workspace files grouped by file name.
+ * <p>
+ * The workspace is walked once, on the first lookup, and the index is kept on the build node until it is invalidated
+ * (e.g. after a command which may have changed the workspace). The walk and the reads of a lookup are done on the build
+ * node in a single remoting call, see {@link RemoteFileLookup}, only the paths of the looked up names are kept here and
+ * a lookup of names which were looked up before needs no call unless it reads a file.
+ *
+ * @author liaozan
+ * @since 2022/2/10
+ */
+public class WorkspaceFileIndex {
+
+    /**
+     * Excluded by default, in addition to the scm metadata directories {@link FilePath#list(String, String)} always skips
+     */
+    public static final String DEFAULT_EXCLUDES = "**/node_modules/**";
+
+    private final FilePath workspace;
+    private final String excludes;
+
+    /**
+     * The paths of the names looked up so far, empty if no file has the name
+     */
+    private final Map<String, List<String>> relativePathsByName = new HashMap<>();
+
+    private String indexKey = UUID.randomUUID().toString();
+    private String discardedIndexKey;
+
+    public WorkspaceFileIndex(@CheckForNull FilePath workspace, @CheckForNull String excludes) {
+        this.workspace = workspace;
+        this.excludes = StringUtils.isBlank(excludes) ? DEFAULT_EXCLUDES : excludes;
+    }
+
+    public FilePath getWorkspace() {
+        return workspace;
+    }
+
+    public String getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * lookup the file which is closest to the workspace root
+     */
+    @CheckForNull
+    public FilePath lookup(String fileName) throws IOException, InterruptedException {
+        List<FilePath> matchedFiles = lookupAll(fileName);
+        if (matchedFiles.isEmpty()) {
+            return null;
+        }
+        return matchedFiles.get(0);
+    }
+
+    /**
+     * lookup all the files with the special name, the closest first
+     */
+    public List<FilePath> lookupAll(String fileName) throws IOException, InterruptedException {
+        RemoteFileLookup.Result result = lookup(new RemoteFileLookup(excludes).find(fileName));
+        RemoteFileLookup.Match match = result == null ? null : result.get(fileName);
+        if (match == null) {
+            return Collections.emptyList();
+        }
+        List<FilePath> matchedFiles = new ArrayList<>(match.getRelativePaths().size());
+        for (String relativePath : match.getRelativePaths()) {
+            matchedFiles.add(workspace.child(relativePath));
+        }
+        return matchedFiles;
+    }
+
+    /**
+     * Answer the lookup from the paths of the names looked up before, otherwise from the index on the build node,
+     * the workspace is walked by the lookup itself if it is not indexed yet
+     *
+     * @return null if there is no workspace
+     */
+    @CheckForNull
+    public RemoteFileLookup.Result lookup(RemoteFileLookup lookup) throws IOException, InterruptedException {
+        if (workspace == null) {
+            return null;
+        }
+        Map<String, List<String>> knownPaths = getKnownPaths(lookup.getFileNames());
+        if (knownPaths != null) {
+            if (!lookup.isReading()) {
+                return lookup.resolve(null, knownPaths);
+            }
+            return workspace.act(lookup.withIndex(knownPaths));
+        }
+        synchronized (this) {
+            // the concurrent lookups wait for the walk instead of walking again
+            RemoteFileLookup.Result result = workspace.act(lookup.withIndexKey(indexKey, discardedIndexKey));
+            discardedIndexKey = null;
+            if (result.isWorkspaceExists()) {
+                for (String fileName : lookup.getFileNames()) {
+                    RemoteFileLookup.Match match = result.get(fileName);
+                    relativePathsByName.put(fileName, match == null ? Collections.emptyList() : match.getRelativePaths());
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return null if a name was not looked up yet
+     */
+    @CheckForNull
+    private synchronized Map<String, List<String>> getKnownPaths(Set<String> fileNames) {
+        Map<String, List<String>> knownPaths = new HashMap<>();
+        for (String fileName : fileNames) {
+            List<String> relativePaths = relativePathsByName.get(fileName);
+            if (relativePaths == null) {
+                return null;
+            }
+            knownPaths.put(fileName, relativePaths);
+        }
+        return knownPaths;
+    }
+
+    /**
+     * Drop the indexed files, the workspace will be walked again on the next lookup
+     */
+    public synchronized void invalidate() {
+        if (relativePathsByName.isEmpty()) {
+            // the workspace was not walked since the last invalidation
+            return;
+        }
+        relativePathsByName.clear();
+        // the index on the node is dropped with the next lookup
+        discardedIndexKey = indexKey;
+        indexKey = UUID.randomUUID().toString();
+    }
+
+}
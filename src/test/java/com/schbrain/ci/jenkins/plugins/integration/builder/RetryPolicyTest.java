@@ -0,0 +1,64 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void retriesTheTransientFailuresOfTheCommand() {
+        assertEquals("output matched 'Could not transfer artifact'", RetryPolicy.MAVEN.classify(1,
+                "[ERROR] Could not transfer artifact org.slf4j:slf4j-api:pom:1.7.36 from/to central"));
+        assertEquals("output matched 'TOOMANYREQUESTS'", RetryPolicy.DOCKER_REGISTRY.classify(1,
+                "TOOMANYREQUESTS: You have reached your pull rate limit"));
+        assertNotNull(RetryPolicy.KUBECTL.classify(1, "Error from server: etcdserver: request timed out"));
+        assertNotNull(RetryPolicy.TRANSIENT.classify(-1, "java.io.IOException: Connection reset by peer"));
+    }
+
+    @Test
+    public void doesNotRetryTheFailuresOfTheBuildItself() {
+        assertNull(RetryPolicy.MAVEN.classify(1, "[ERROR] COMPILATION ERROR : cannot find symbol"));
+        assertNull(RetryPolicy.MAVEN.classify(1, "Tests run: 12, Failures: 1, Errors: 0, Skipped: 0"));
+        assertNull(RetryPolicy.DOCKER_REGISTRY.classify(1, "denied: requested access to the resource is denied"));
+        // the pattern of another command is not retried
+        assertNull(RetryPolicy.MAVEN.classify(1, "toomanyrequests"));
+        assertNull(RetryPolicy.NEVER.classify(1, "connection reset"));
+    }
+
+    @Test
+    public void retriesOnlyTheGivenExitCodes() {
+        RetryPolicy policy = new RetryPolicy.Builder().maxAttempts(3).retryOnExitCodes(137).retryOn("killed").build();
+
+        assertNotNull(policy.classify(137, "Killed"));
+        assertNull(policy.classify(1, "Killed"));
+        assertNull(policy.classify(137, "out of memory"));
+    }
+
+    @Test
+    public void backsOffExponentiallyWithJitterUpToTheLimit() {
+        RetryPolicy policy = new RetryPolicy.Builder().maxAttempts(5).backoff(1_000, 6_000).build();
+
+        for (int i = 0; i < 100; i++) {
+            assertBetween(500, 1_000, policy.getBackoffMillis(1));
+            assertBetween(1_000, 2_000, policy.getBackoffMillis(2));
+            assertBetween(2_000, 4_000, policy.getBackoffMillis(3));
+            assertBetween(3_000, 6_000, policy.getBackoffMillis(4));
+            assertBetween(3_000, 6_000, policy.getBackoffMillis(64));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAtLeastOneAttempt() {
+        new RetryPolicy.Builder().maxAttempts(0);
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " is not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.util.Logger;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class StageSchedulerTest {
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private final StageScheduler scheduler = new StageScheduler(Logger.of(new PrintStream(log, true)));
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void startsAStageOnceItsDependenciesAreFinished() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        scheduler.stage("maven", () -> awaitTogether(bothStarted, "maven"));
+        scheduler.stage("dockerfile", () -> awaitTogether(bothStarted, "dockerfile"));
+        scheduler.stage("image", () -> runFor(20, "image"), "maven", "dockerfile");
+        scheduler.stage("deploy", () -> runFor(20, "deploy"), "image");
+
+        scheduler.run();
+
+        // the independent stages ran concurrently, otherwise the latch would have timed out
+        assertEquals(Arrays.asList("image", "deploy"), events.subList(2, 4));
+        for (StageScheduler.Stage stage : scheduler.getStages()) {
+            assertEquals(StageScheduler.State.SUCCESS, stage.getState());
+        }
+        List<StageScheduler.Stage> criticalPath = scheduler.getCriticalPath();
+        assertEquals(3, criticalPath.size());
+        assertEquals("image", criticalPath.get(1).getName());
+        assertEquals("deploy", criticalPath.get(2).getName());
+        assertTrue(log.toString("UTF-8").contains("critical path: "));
+    }
+
+    @Test
+    public void skipsTheDependentsOfAFailedStageAndRethrowsTheFailure() {
+        IllegalStateException failure = new IllegalStateException("maven failed");
+        scheduler.stage("maven", () -> {
+            throw failure;
+        });
+        scheduler.stage("k8s-config", () -> events.add("k8s-config"));
+        scheduler.stage("image", () -> events.add("image"), "maven");
+        scheduler.stage("deploy", () -> events.add("deploy"), "image", "k8s-config");
+
+        try {
+            scheduler.run();
+            fail("the maven stage failed");
+        } catch (Exception e) {
+            assertSame(failure, e);
+        }
+
+        assertEquals(Collections.singletonList("k8s-config"), events);
+        assertEquals(StageScheduler.State.FAILURE, getStage("maven").getState());
+        assertEquals(StageScheduler.State.SUCCESS, getStage("k8s-config").getState());
+        assertEquals(StageScheduler.State.SKIPPED, getStage("image").getState());
+        assertEquals(StageScheduler.State.SKIPPED, getStage("deploy").getState());
+        assertEquals(0, getStage("deploy").getDuration());
+    }
+
+    @Test
+    public void waitsForTheRunningStagesBeforeRethrowing() {
+        scheduler.stage("failing", () -> {
+            throw new IllegalStateException("failed");
+        });
+        scheduler.stage("slow", () -> {
+            runFor(200, "slow finished");
+        });
+
+        try {
+            scheduler.run();
+            fail("a stage failed");
+        } catch (Exception e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(Collections.singletonList("slow finished"), events);
+    }
+
+    @Test
+    public void rejectsTheUnknownAndTheDuplicatedStages() {
+        scheduler.stage("maven", () -> {
+        });
+        try {
+            scheduler.stage("image", () -> {
+            }, "dockerfile");
+            fail("dockerfile is not a stage");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("dockerfile"));
+        }
+        try {
+            scheduler.stage("maven", () -> {
+            });
+            fail("maven is a stage already");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("maven"));
+        }
+    }
+
+    private void awaitTogether(CountDownLatch latch, String name) throws InterruptedException {
+        latch.countDown();
+        assertTrue(name + " did not run concurrently", latch.await(10, TimeUnit.SECONDS));
+        events.add(name);
+    }
+
+    private void runFor(long millis, String name) throws InterruptedException {
+        Thread.sleep(millis);
+        events.add(name);
+    }
+
+    private StageScheduler.Stage getStage(String name) {
+        for (StageScheduler.Stage stage : scheduler.getStages()) {
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.coalesce;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class DeployLaneTest {
+
+    @Test
+    public void newerBuildSupersedesTheOlderInFlightBuilds() {
+        DeployLane lane = new DeployLane();
+        lane.enter(3);
+        lane.enter(4);
+        lane.enter(5);
+
+        assertEquals(Arrays.asList(3, 4), lane.claim(5));
+        assertEquals(5, lane.getSupersedingBuild(3));
+        assertEquals(5, lane.getSupersedingBuild(4));
+        assertEquals(0, lane.getSupersedingBuild(5));
+    }
+
+    @Test
+    public void olderBuildCanNotClaimTheLaneBack() {
+        DeployLane lane = new DeployLane();
+        lane.enter(7);
+        lane.enter(8);
+        lane.claim(8);
+
+        assertEquals(Collections.emptyList(), lane.claim(7));
+        assertEquals(8, lane.getSupersedingBuild(7));
+    }
+
+    @Test
+    public void completedBuildsAreNotReportedAsSuperseded() {
+        DeployLane lane = new DeployLane();
+        lane.enter(1);
+        lane.enter(2);
+        lane.leave(1);
+
+        assertEquals(Collections.emptyList(), lane.claim(2));
+        assertFalse(lane.isIdle());
+        lane.leave(2);
+        assertTrue(lane.isIdle());
+    }
+
+    @Test
+    public void deploysOfATargetAreSerialized() throws Exception {
+        DeployLane lane = new DeployLane();
+        CountDownLatch firstDeployStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstDeploy = new CountDownLatch(1);
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        Thread first = new Thread(() -> {
+            try {
+                lane.deploy("prod", () -> {
+                    events.add("first started");
+                    firstDeployStarted.countDown();
+                    releaseFirstDeploy.await();
+                    events.add("first finished");
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        first.start();
+        assertTrue(firstDeployStarted.await(10, TimeUnit.SECONDS));
+
+        Thread second = new Thread(() -> {
+            try {
+                lane.deploy("prod", () -> events.add("second started"));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        second.start();
+        // another target is not blocked by the running deploy
+        lane.deploy("staging", () -> events.add("staging started"));
+        releaseFirstDeploy.countDown();
+        first.join(10_000);
+        second.join(10_000);
+
+        assertTrue(events.indexOf("staging started") < events.indexOf("first finished"));
+        assertTrue(events.indexOf("first finished") < events.indexOf("second started"));
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.config;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class MavenConfigTest {
+
+    @Test
+    public void appendsThePlainArgumentsAsTheyAre() {
+        assertEquals("mvn clean install -T 4 -DforkCount=2",
+                MavenConfig.appendArguments("mvn clean install", Arrays.asList("-T", "4", "-DforkCount=2")));
+        assertEquals("mvn package -pl service/api,web -amd",
+                MavenConfig.appendArguments("mvn package", Arrays.asList("-pl", "service/api,web", "-amd")));
+        assertEquals("mvn package", MavenConfig.appendArguments("mvn package", Collections.emptyList()));
+    }
+
+    @Test
+    public void quotesTheArgumentsTheShellWouldSplitOrExpand() {
+        assertEquals("mvn package -pl 'my module,$web' -amd",
+                MavenConfig.appendArguments("mvn package", Arrays.asList("-pl", "my module,$web", "-amd")));
+        assertEquals("mvn package -pl 'it'\\''s'",
+                MavenConfig.appendArguments("mvn package", Arrays.asList("-pl", "it's")));
+    }
+
+}
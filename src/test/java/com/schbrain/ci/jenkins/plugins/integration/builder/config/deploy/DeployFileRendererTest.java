@@ -0,0 +1,79 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.config.deploy;
+
+import com.schbrain.ci.jenkins.plugins.integration.builder.constants.Constants.DeployConstants;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class DeployFileRendererTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void rendersTheTemplateOfTheBuildScriptDirectory() throws IOException {
+        File directory = temporaryFolder.newFolder("build-script");
+        write(new File(directory, DeployConstants.TEMPLATE_FILE_NAME), "image: {IMAGE}\nreplicas: {REPLICAS}\nport: {PORT}\n");
+        Map<String, String> variables = new HashMap<>();
+        variables.put("IMAGE", "registry/app:1.0-7");
+        variables.put("REPLICAS", "2");
+
+        DeployFileRenderer.Result result = new DeployFileRenderer(DeployConstants.TEMPLATE_FILE_NAME,
+                DeployConstants.DEPLOY_FILE_NAME, variables, 1024).invoke(directory, null);
+
+        String expected = "image: registry/app:1.0-7\nreplicas: 2\nport: {PORT}\n";
+        assertEquals(expected, read(new File(directory, DeployConstants.DEPLOY_FILE_NAME)));
+        assertEquals(expected, result.getHead());
+        assertEquals(expected.length(), result.getLength());
+        assertEquals(Collections.singleton("PORT"), result.getUnresolvedPlaceholders());
+    }
+
+    @Test
+    public void sendsBackOnlyTheHeadOfALargeDeployFile() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        write(new File(directory, DeployConstants.TEMPLATE_FILE_NAME), "name: {NAME}\n");
+
+        DeployFileRenderer.Result result = new DeployFileRenderer(DeployConstants.TEMPLATE_FILE_NAME,
+                "deploy-1.yaml", Collections.singletonMap("NAME", "application"), 8).invoke(directory, null);
+
+        assertEquals("name: ap", result.getHead());
+        assertEquals("name: application\n".length(), result.getLength());
+        assertTrue(result.getUnresolvedPlaceholders().isEmpty());
+    }
+
+    @Test
+    public void failsWhenTheTemplateIsMissing() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        try {
+            new DeployFileRenderer(DeployConstants.TEMPLATE_FILE_NAME, DeployConstants.DEPLOY_FILE_NAME,
+                    Collections.emptyMap(), 1024).invoke(directory, null);
+            fail("the template does not exist");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains(directory.getPath()));
+        }
+        assertFalse(new File(directory, DeployConstants.DEPLOY_FILE_NAME).exists());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.docker;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class DockerProgressTest {
+
+    @Test
+    public void parsesTheClassicBuilderOutput() {
+        DockerProgress progress = new DockerProgress();
+        progress.parse("Sending build context to Docker daemon  12.5MB");
+        progress.parse("Step 1/3 : FROM openjdk:8-jre");
+        progress.parse("Step 2/3 : COPY target/app.jar /app.jar");
+        progress.parse(" ---> Using cache");
+        progress.parse("Step 3/3 : ENTRYPOINT [\"java\", \"-jar\", \"/app.jar\"]");
+
+        assertEquals(3, progress.getSteps());
+        assertEquals(1, progress.getCachedSteps());
+        assertEquals("12.5MB", progress.getContextSize());
+        assertEquals(1 / 3.0, progress.getCacheHitRatio(), 0.001);
+    }
+
+    @Test
+    public void countsTheBuildKitStepsOnce() {
+        DockerProgress progress = new DockerProgress();
+        progress.parse("#4 [internal] load build context");
+        progress.parse("#4 transferring context: 2.05kB done");
+        progress.parse("#5 [1/3] FROM docker.io/library/openjdk:8-jre");
+        progress.parse("#5 CACHED");
+        progress.parse("#6 [2/3] COPY target/app.jar /app.jar");
+        progress.parse("#6 [2/3] COPY target/app.jar /app.jar");
+        // a cached line of a step which is not a build step, e.g. the cache import
+        progress.parse("#3 CACHED");
+
+        assertEquals(2, progress.getSteps());
+        assertEquals(1, progress.getCachedSteps());
+        assertEquals("2.05kB", progress.getContextSize());
+    }
+
+    @Test
+    public void parsesThePushedLayersAndTheDigest() {
+        DockerProgress progress = new DockerProgress();
+        progress.parse("The push refers to repository [registry:5000/app]");
+        progress.parse("5f70bf18a086: Pushed");
+        progress.parse("a2b5c0a9e1f3: Layer already exists");
+        progress.parse("e7b8f5d2c3a1: Mounted from library/openjdk");
+        progress.parse("1.0-7: digest: sha256:0f3a9b8c7d6e5f40 size: 1787");
+
+        assertEquals(1, progress.getPushedLayers());
+        assertEquals(2, progress.getExistingLayers());
+        assertEquals("sha256:0f3a9b8c7d6e5f40", progress.getDigest());
+        assertEquals(1787, progress.getManifestSize());
+    }
+
+    @Test
+    public void forgetsThePreviousAttempt() throws IOException {
+        DockerProgress progress = new DockerProgress();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        try (OutputStream output = progress.newAttempt(log)) {
+            output.write("Step 1/2 : FROM alpine\n5f70bf18a086: Pushed\n".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(1, progress.getSteps());
+
+        try (OutputStream output = progress.newAttempt(log)) {
+            output.write("Step 1/2 : FROM alpine\r\n ---> Using cache\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(1, progress.getSteps());
+        assertEquals(1, progress.getCachedSteps());
+        assertEquals(0, progress.getPushedLayers());
+        assertTrue(log.toString(StandardCharsets.UTF_8.name()).startsWith("Step 1/2 : FROM alpine\n5f70bf18a086: Pushed\n"));
+    }
+
+    @Test
+    public void parsesTheSizesOfTheDockerCli() {
+        assertEquals(0, DockerProgress.parseSize("0B"));
+        assertEquals(2_050, DockerProgress.parseSize("2.05kB"));
+        assertEquals(512_000_000, DockerProgress.parseSize(" 512MB "));
+        assertEquals(1_200_000_000L, DockerProgress.parseSize("1.2GB (35%)"));
+        assertEquals(0, DockerProgress.parseSize("unknown"));
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.docker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class ImageInputHashTest {
+
+    private static final Map<String, String> BASE_IMAGE_IDS = Collections.singletonMap("openjdk:8-jre", "sha256:1111");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void collectsTheSourcesCopiedFromTheBuildContext() {
+        String dockerfile = "FROM maven AS build\n" +
+                "# COPY ignored.txt /\n" +
+                "COPY pom.xml /build/\n" +
+                "COPY --chown=app:app src \\\n" +
+                "     config/*.yaml /build/\n" +
+                "FROM openjdk:8-jre\n" +
+                "COPY --from=build /build/target/app.jar /app.jar\n" +
+                "ADD [\"docker/entrypoint.sh\", \"/entrypoint.sh\"]\n";
+
+        assertEquals(Arrays.asList("pom.xml", "src", "config/*.yaml", "docker/entrypoint.sh"),
+                ImageInputHash.getCopiedSources(dockerfile));
+    }
+
+    @Test
+    public void cannotHashTheRemoteSources() {
+        assertNull(ImageInputHash.getCopiedSources("FROM alpine\nADD https://example.com/app.tar.gz /app/\n"));
+    }
+
+    @Test
+    public void resolvesTheBaseImagesOfTheStages() {
+        String dockerfile = "FROM --platform=linux/amd64 maven:3-jdk-8 AS Build\n" +
+                "FROM build AS test\n" +
+                "FROM scratch AS empty\n" +
+                "FROM openjdk:8-jre\n" +
+                "FROM maven:3-jdk-8\n";
+
+        assertEquals(Arrays.asList("maven:3-jdk-8", "openjdk:8-jre"), ImageInputHash.getBaseImages(dockerfile));
+        assertNull(ImageInputHash.getBaseImages("ARG BASE=alpine\nFROM ${BASE}\n"));
+    }
+
+    @Test
+    public void hashChangesWithTheCopiedFilesTheIgnoreFileAndTheBaseImages() throws IOException {
+        File context = temporaryFolder.getRoot();
+        write(new File(context, "Dockerfile"), "FROM openjdk:8-jre\nCOPY target/*.jar /app.jar\n");
+        write(new File(temporaryFolder.newFolder("target"), "app.jar"), "v1");
+        write(new File(context, "README.md"), "not copied");
+        String hash = hash(BASE_IMAGE_IDS);
+
+        write(new File(context, "README.md"), "still not copied");
+        assertEquals(hash, hash(BASE_IMAGE_IDS));
+
+        write(new File(context, "target/app.jar"), "v2");
+        String changedJarHash = hash(BASE_IMAGE_IDS);
+        assertNotEquals(hash, changedJarHash);
+
+        write(new File(context, ".dockerignore"), "target/*.tmp\n");
+        String ignoreFileHash = hash(BASE_IMAGE_IDS);
+        assertNotEquals(changedJarHash, ignoreFileHash);
+
+        assertNotEquals(ignoreFileHash, hash(Collections.singletonMap("openjdk:8-jre", "sha256:2222")));
+    }
+
+    @Test
+    public void cannotHashAMissingDockerfile() throws IOException {
+        assertNull(new ImageInputHash("Dockerfile", Collections.emptyList(), BASE_IMAGE_IDS).invoke(temporaryFolder.getRoot(), null));
+    }
+
+    private String hash(Map<String, String> baseImageIds) throws IOException {
+        String hash = new ImageInputHash("Dockerfile", Collections.emptyList(), baseImageIds).invoke(temporaryFolder.getRoot(), null);
+        assertNotNull(hash);
+        return hash;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.env;
+
+import hudson.FilePath;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class BuildEnvStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FilePath directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new FilePath(temporaryFolder.newFolder());
+    }
+
+    @Test
+    public void keepsTheBuildsOfTheSameWorkspaceApart() throws Exception {
+        BuildEnvStore store = new BuildEnvStore();
+        store.save("folder/app#1", directory, Collections.singletonMap("IMAGE", "app:1"));
+        store.save("folder/app#2", directory, Collections.singletonMap("IMAGE", "app:2"));
+
+        // read back from the files, as after a restart of the controller
+        BuildEnvStore restarted = new BuildEnvStore();
+        assertEquals(Collections.singletonMap("IMAGE", "app:1"), restarted.load("folder/app#1", directory));
+        assertEquals(Collections.singletonMap("IMAGE", "app:2"), restarted.load("folder/app#2", directory));
+    }
+
+    @Test
+    public void keepsTheValuesContainingEquals() throws Exception {
+        Map<String, String> envVars = new HashMap<>();
+        envVars.put("JAVA_OPTS", "-Dspring.profiles.active=prod -Dkey==value");
+        envVars.put("SELECTOR", "app=application,tier=web");
+        new BuildEnvStore().save("app#1", directory, envVars);
+
+        assertEquals(envVars, new BuildEnvStore().load("app#1", directory));
+    }
+
+    @Test
+    public void fallsBackToTheFileOnceTheCacheIsLost() throws Exception {
+        BuildEnvStore store = new BuildEnvStore();
+        store.save("app#1", directory, Collections.singletonMap("IMAGE", "app:1"));
+        store.save("app#2", null, Collections.singletonMap("IMAGE", "app:2"));
+
+        BuildEnvStore restarted = new BuildEnvStore();
+        assertEquals(Collections.singletonMap("IMAGE", "app:1"), restarted.load("app#1", directory));
+        // only kept in memory
+        assertEquals(Collections.singletonMap("IMAGE", "app:2"), store.load("app#2", directory));
+        assertNull(restarted.load("app#2", directory));
+    }
+
+    @Test
+    public void evictsTheCacheAndTheFile() throws Exception {
+        BuildEnvStore store = new BuildEnvStore();
+        store.save("app#1", directory, Collections.singletonMap("IMAGE", "app:1"));
+
+        store.evict("app#1", directory);
+
+        assertNull(store.load("app#1", directory));
+        assertNull(new BuildEnvStore().load("app#1", directory));
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.env;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class EnvVarsSnapshotTest {
+
+    private final BuildEnvStore store = new BuildEnvStore();
+
+    private final EnvVarsSnapshot snapshot = new EnvVarsSnapshot(store, "app#1", null);
+
+    @Test
+    public void skipsTheSaveOfUnchangedVariables() throws Exception {
+        Map<String, String> envVars = new HashMap<>();
+        envVars.put("IMAGE", "app:1");
+
+        assertTrue(snapshot.save(envVars));
+        assertFalse(snapshot.save(new HashMap<>(envVars)));
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(envVars, store.load("app#1", null));
+    }
+
+    @Test
+    public void savesTheChangedVariables() throws Exception {
+        Map<String, String> envVars = new HashMap<>();
+        envVars.put("IMAGE", "app:1");
+        envVars.put("NAMESPACE", "default");
+        snapshot.save(envVars);
+
+        envVars.put("IMAGE", "app:2");
+        envVars.remove("NAMESPACE");
+        envVars.put("PORT", "8080");
+
+        assertEquals(new HashSet<>(Arrays.asList("IMAGE", "NAMESPACE", "PORT")), snapshot.getDirtyKeys(envVars));
+        assertTrue(snapshot.save(envVars));
+        assertEquals(2, snapshot.getVersion());
+        assertEquals(envVars, store.load("app#1", null));
+        assertEquals(Collections.emptySet(), snapshot.getDirtyKeys(envVars));
+    }
+
+    @Test
+    public void savesTheFirstVariablesEvenIfEmpty() throws Exception {
+        assertEquals(0, snapshot.getVersion());
+
+        assertTrue(snapshot.save(Collections.emptyMap()));
+        assertEquals(Collections.emptyMap(), store.load("app#1", null));
+    }
+
+}
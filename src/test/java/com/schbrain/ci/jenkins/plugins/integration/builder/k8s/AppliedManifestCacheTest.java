@@ -0,0 +1,54 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.k8s;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class AppliedManifestCacheTest {
+
+    @Test
+    public void summarizesTheChangedLines() {
+        String previous = "kind: Deployment\nreplicas: 1\nimage: app:1.0-6\n";
+        String current = "kind: Deployment\r\nreplicas: 2\r\nimage: app:1.0-7\r\nport: 8080\r\n";
+
+        assertEquals(Arrays.asList("3 lines added, 2 lines removed",
+                        "- replicas: 1", "- image: app:1.0-6", "+ replicas: 2", "+ image: app:1.0-7", "+ port: 8080"),
+                AppliedManifestCache.diffSummary(previous, current));
+    }
+
+    @Test
+    public void ignoresTheMovedLines() {
+        assertEquals(Collections.singletonList("0 lines added, 0 lines removed"),
+                AppliedManifestCache.diffSummary("a: 1\nb: 2\n", "b: 2\na: 1\n"));
+    }
+
+    @Test
+    public void countsTheDuplicatedLines() {
+        assertEquals(Arrays.asList("2 lines added, 0 lines removed", "+ - name: app"),
+                AppliedManifestCache.diffSummary("- name: app\n", "- name: app\n- name: app\n- name: app\n"));
+    }
+
+    @Test
+    public void printsOnlyTheFirstChangedLines() {
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            current.append("line ").append(i).append('\n');
+        }
+
+        List<String> summary = AppliedManifestCache.diffSummary("line 0\n", current.toString());
+
+        assertEquals(21, summary.size());
+        assertEquals("29 lines added, 0 lines removed", summary.get(0));
+        assertEquals("+ line 1", summary.get(1));
+        assertEquals("+ line 20", summary.get(20));
+    }
+
+}
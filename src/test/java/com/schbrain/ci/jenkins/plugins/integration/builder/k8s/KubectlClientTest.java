@@ -0,0 +1,66 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.k8s;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class KubectlClientTest {
+
+    @Test
+    public void appliesTheManifestServerSide() {
+        KubectlClient client = new KubectlClient(null, "/home/jenkins/.kube/prod", "shop");
+
+        assertEquals(Arrays.asList("kubectl", "apply", "--kubeconfig", "/home/jenkins/.kube/prod", "--server-side",
+                        "--force-conflicts", "--field-manager", KubectlClient.FIELD_MANAGER, "-f", "deploy.yaml", "-n", "shop"),
+                client.applyCommand("deploy.yaml").toList());
+    }
+
+    @Test
+    public void usesTheDefaultsOfKubectlWhenNotConfigured() {
+        KubectlClient client = new KubectlClient(null, " ", null);
+
+        assertEquals(Arrays.asList("kubectl", "apply", "--server-side", "--force-conflicts",
+                        "--field-manager", KubectlClient.FIELD_MANAGER, "-f", "deploy.yaml"),
+                client.applyCommand("deploy.yaml").toList());
+    }
+
+    @Test
+    public void waitsForEachWorkloadInItsNamespace() {
+        KubectlClient client = new KubectlClient(null, null, "shop");
+
+        assertEquals(Arrays.asList("kubectl", "rollout", "status", "deployment/application", "--timeout=120s", "-n", "shop"),
+                client.rolloutStatusCommand(new RolloutWorkload("Deployment", "application", null), "shop", 120).toList());
+        assertEquals(Arrays.asList("kubectl", "rollout", "status", "statefulset/redis", "--timeout=60s", "-n", "storage"),
+                client.rolloutStatusCommand(new RolloutWorkload("StatefulSet", "redis", "storage"), "shop", 60).toList());
+        assertEquals(Arrays.asList("kubectl", "rollout", "status", "deployment/application", "--timeout=60s"),
+                client.rolloutStatusCommand(new RolloutWorkload("Deployment", "application", null), null, 60).toList());
+    }
+
+    @Test
+    public void readsTheRevisionOnceTheDeploymentIsObserved() {
+        assertEquals("4", KubectlClient.parseObservedRevision("7 7 4"));
+        assertNull(KubectlClient.parseObservedRevision("8 7 4"));
+        assertNull(KubectlClient.parseObservedRevision("1  "));
+        assertNull(KubectlClient.parseObservedRevision(null));
+    }
+
+    @Test
+    public void findsTheReplicaSetOfTheRevision() {
+        String replicaSets = "application-5d9c7b application 3\n" +
+                "application-7f6b8c application 4\n" +
+                "worker-7f6b8c worker 4\n";
+
+        assertEquals("application-7f6b8c", KubectlClient.findReplicaSet(replicaSets, "application", "4"));
+        assertEquals("worker-7f6b8c", KubectlClient.findReplicaSet(replicaSets, "worker", "4"));
+        assertNull(KubectlClient.findReplicaSet(replicaSets, "application", "5"));
+        assertNull(KubectlClient.findReplicaSet(null, "application", "4"));
+    }
+
+}
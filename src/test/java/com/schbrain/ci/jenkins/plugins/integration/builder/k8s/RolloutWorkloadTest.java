@@ -0,0 +1,59 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.k8s;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class RolloutWorkloadTest {
+
+    @Test
+    public void keepsOnlyTheWorkloadsWhichCanBeRolledOut() {
+        String manifest = "apiVersion: v1\n" +
+                "kind: Service\n" +
+                "metadata:\n" +
+                "  name: application\n" +
+                "---\n" +
+                "apiVersion: apps/v1\n" +
+                "kind: Deployment\n" +
+                "metadata:\n" +
+                "  name: application\n" +
+                "  labels:\n" +
+                "    name: not-the-name\n" +
+                "spec:\n" +
+                "  template:\n" +
+                "    metadata:\n" +
+                "      name: pod\n" +
+                "--- # the cache\n" +
+                "kind: StatefulSet\n" +
+                "metadata:\n" +
+                "  namespace: \"storage\"\n" +
+                "  name: 'redis'\n" +
+                "---\n" +
+                "kind: ConfigMap\n" +
+                "metadata:\n" +
+                "  name: settings\n";
+
+        List<RolloutWorkload> workloads = RolloutWorkload.parse(manifest);
+
+        assertEquals(2, workloads.size());
+        assertEquals("deployment/application", workloads.get(0).getResource());
+        assertTrue(workloads.get(0).isDeployment());
+        assertNull(workloads.get(0).getNamespace());
+        assertEquals("statefulset/redis", workloads.get(1).getResource());
+        assertFalse(workloads.get(1).isDeployment());
+        assertEquals("storage", workloads.get(1).getNamespace());
+    }
+
+    @Test
+    public void ignoresTheWorkloadsWithoutAName() {
+        assertTrue(RolloutWorkload.parse("kind: Deployment\nspec:\n  replicas: 1\n").isEmpty());
+        assertTrue(RolloutWorkload.parse("").isEmpty());
+    }
+
+}
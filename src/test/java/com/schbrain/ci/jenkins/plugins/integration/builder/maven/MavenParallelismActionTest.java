@@ -0,0 +1,55 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.maven;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class MavenParallelismActionTest {
+
+    @Test
+    public void runsSequentiallyOnASingleCore() {
+        assertParallelism(MavenParallelismAction.decide(1, 1, 0), 1, 1);
+    }
+
+    @Test
+    public void sharesTheCoresWithTheBusyExecutors() {
+        assertParallelism(MavenParallelismAction.decide(16, 2, 0), 8, 1);
+    }
+
+    @Test
+    public void keepsOneThreadOnAFullyBusyNode() {
+        MavenParallelismAction parallelism = MavenParallelismAction.decide(4, 8, 0);
+
+        assertParallelism(parallelism, 1, 1);
+        assertEquals(8, parallelism.getBusyExecutors());
+    }
+
+    @Test
+    public void countsTheBuildAsBusyExecutor() {
+        MavenParallelismAction parallelism = MavenParallelismAction.decide(4, 0, 0);
+
+        assertParallelism(parallelism, 4, 1);
+        assertEquals(1, parallelism.getBusyExecutors());
+    }
+
+    @Test
+    public void givesTheCoresAboveTheThreadCapToTheForks() {
+        assertParallelism(MavenParallelismAction.decide(16, 1, 4), 4, 4);
+        assertParallelism(MavenParallelismAction.decide(10, 1, 4), 4, 2);
+    }
+
+    @Test
+    public void ignoresACapAboveTheShare() {
+        assertParallelism(MavenParallelismAction.decide(8, 2, 6), 4, 1);
+    }
+
+    private static void assertParallelism(MavenParallelismAction parallelism, int threads, int forkCount) {
+        assertEquals(threads, parallelism.getThreads());
+        assertEquals(forkCount, parallelism.getForkCount());
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.maven;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class MavenReactorTest {
+
+    private final MavenReactor reactor = new MavenReactor(Arrays.asList(
+            new MavenReactor.Module("", "pom.xml", "pom"),
+            new MavenReactor.Module("service", "service/pom.xml", "jar"),
+            new MavenReactor.Module("service/api", "service/api/pom.xml", "jar"),
+            new MavenReactor.Module("web", "web/pom.xml", "war")));
+
+    @Test
+    public void selectsTheDeepestModuleOwningEachChange() {
+        MavenReactor.Selection selection = reactor.select(Arrays.asList(
+                "service/api/src/main/java/Api.java", "./web/src/main/webapp/index.html", "service/pom.xml"));
+
+        assertFalse(selection.isFullBuild());
+        assertEquals(Arrays.asList("service", "service/api", "web"), Arrays.asList(selection.getModules().toArray()));
+        assertEquals(Arrays.asList("-pl", "service,service/api,web", "-amd"), selection.toMavenArguments());
+    }
+
+    @Test
+    public void buildsTheWholeReactorWhenTheParentOrTheMavenConfigChanges() {
+        assertTrue(reactor.select(Collections.singletonList("pom.xml")).isFullBuild());
+        assertTrue(reactor.select(Arrays.asList("web/pom.xml", ".mvn/maven.config")).isFullBuild());
+        assertEquals(Collections.emptyList(), reactor.select(Collections.singletonList("pom.xml")).toMavenArguments());
+    }
+
+    @Test
+    public void ignoresTheFilesOfTheAggregator() {
+        MavenReactor.Selection selection = reactor.select(Collections.singletonList("README.md"));
+
+        assertTrue(selection.isFullBuild());
+        assertEquals("no module is affected by the changes", selection.getReason());
+    }
+
+    @Test
+    public void buildsTheWholeProjectWhenTheRootModuleIsSelected() {
+        MavenReactor singleModule = new MavenReactor(Collections.singletonList(new MavenReactor.Module("", "pom.xml", "jar")));
+
+        MavenReactor.Selection selection = singleModule.select(Collections.singletonList("src/main/java/Application.java"));
+
+        assertTrue(selection.isFullBuild());
+        assertEquals(Collections.emptyList(), selection.toMavenArguments());
+    }
+
+    @Test
+    public void selectsTheRootModuleAsTheCurrentDirectory() {
+        MavenReactor.Selection selection = MavenReactor.Selection.of(new TreeSet<>(Arrays.asList("", "web")));
+
+        assertEquals(Arrays.asList("-pl", ".,web", "-amd"), selection.toMavenArguments());
+    }
+
+}
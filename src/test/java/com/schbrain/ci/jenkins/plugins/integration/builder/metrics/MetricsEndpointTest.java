@@ -0,0 +1,63 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.metrics;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class MetricsEndpointTest {
+
+    @Test
+    public void escapesTheLabelValues() {
+        assertEquals("plain-job", MetricsEndpoint.escape("plain-job"));
+        assertEquals("folder/say \\\"hi\\\"", MetricsEndpoint.escape("folder/say \"hi\""));
+        assertEquals("C:\\\\builds\\\\job", MetricsEndpoint.escape("C:\\builds\\job"));
+        assertEquals("first\\nsecond", MetricsEndpoint.escape("first\nsecond"));
+    }
+
+    @Test
+    public void writesTheCountersWithEscapedLabels() {
+        StageMetrics maven = new StageMetrics("maven");
+        maven.recordCommand(3);
+        maven.complete("SUCCESS", 1500);
+        StageMetrics deploy = new StageMetrics("deploy");
+        deploy.complete("FAILURE", 250);
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.record("team/\"app\"", "built-in", Arrays.asList(maven, deploy));
+
+        StringWriter output = new StringWriter();
+        try (PrintWriter writer = new PrintWriter(output)) {
+            new MetricsEndpoint().writePrometheus(writer, "job", registry.getByJob());
+        }
+
+        String text = output.toString();
+        String mavenLabels = "job=\"team/\\\"app\\\"\",stage=\"maven\"";
+        assertTrue(text, text.contains("# TYPE integration_job_stage_runs_total counter"));
+        assertTrue(text, text.contains("integration_job_stage_runs_total{" + mavenLabels + ",state=\"SUCCESS\"} 1"));
+        assertTrue(text, text.contains("integration_job_stage_runs_total{job=\"team/\\\"app\\\"\",stage=\"deploy\",state=\"FAILURE\"} 1"));
+        assertTrue(text, text.contains("integration_job_stage_duration_seconds_total{" + mavenLabels + "} 1.5"));
+        assertTrue(text, text.contains("integration_job_stage_attempts_total{" + mavenLabels + "} 3"));
+        assertTrue(text, text.contains("integration_job_stage_retries_total{" + mavenLabels + "} 2"));
+    }
+
+    @Test
+    public void writesOnlyTheHelpWithoutMetrics() {
+        StringWriter output = new StringWriter();
+        try (PrintWriter writer = new PrintWriter(output)) {
+            new MetricsEndpoint().writePrometheus(writer, "node", Collections.emptyMap());
+        }
+
+        for (String line : output.toString().split("\\r?\\n")) {
+            assertTrue(line, line.startsWith("# "));
+        }
+    }
+
+}
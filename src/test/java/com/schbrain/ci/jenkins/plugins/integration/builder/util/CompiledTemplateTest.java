@@ -0,0 +1,79 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class CompiledTemplateTest {
+
+    @Test
+    public void splitsTheTemplateIntoLiteralsAndPlaceholders() {
+        List<CompiledTemplate.Segment> segments = CompiledTemplate.compile("image: {IMAGE}:{app.version}").getSegments();
+
+        assertEquals(4, segments.size());
+        assertSegment(segments.get(0), "image: ", false);
+        assertSegment(segments.get(1), "IMAGE", true);
+        assertSegment(segments.get(2), ":", false);
+        assertSegment(segments.get(3), "app.version", true);
+    }
+
+    @Test
+    public void keepsTheBracesWhichDoNotOpenAPlaceholder() {
+        String template = "json: {\"port\": {PORT}} {} {NOT\nCLOSED} {UNCLOSED";
+        Map<String, String> variables = Collections.singletonMap("PORT", "8080");
+
+        CompiledTemplate.Result result = CompiledTemplate.compile(template).render(variables, new StringBuilder());
+
+        assertEquals("json: {\"port\": 8080} {} {NOT\nCLOSED} {UNCLOSED", result.getContent());
+        assertTrue(result.getUnresolvedPlaceholders().isEmpty());
+    }
+
+    @Test
+    public void acceptsAnyEntryKeyAsPlaceholder() {
+        Map<String, String> variables = new HashMap<>();
+        variables.put("app name", "application");
+        variables.put("spring.profiles:active", "prod");
+
+        CompiledTemplate.Result result = CompiledTemplate.compile("{app name}-{spring.profiles:active} {not set}")
+                .render(variables, new StringBuilder());
+
+        assertEquals("application-prod {not set}", result.getContent());
+        assertEquals(Collections.singleton("not set"), result.getUnresolvedPlaceholders());
+    }
+
+    @Test
+    public void reportsThePlaceholdersWithoutAValue() {
+        Map<String, String> variables = new HashMap<>();
+        variables.put("NAME", "application");
+        StringBuilder buffer = new StringBuilder("left over from the previous render");
+
+        CompiledTemplate.Result result = CompiledTemplate.compile("{NAME} {PORT} {NAMESPACE} {PORT}").render(variables, buffer);
+
+        assertEquals("application {PORT} {NAMESPACE} {PORT}", result.getContent());
+        assertEquals(Arrays.asList("PORT", "NAMESPACE"), Arrays.asList(result.getUnresolvedPlaceholders().toArray()));
+    }
+
+    @Test
+    public void rendersWithoutVariables() {
+        CompiledTemplate.Result result = CompiledTemplate.compile("replicas: {REPLICAS}").render(null, new StringBuilder());
+
+        assertEquals("replicas: {REPLICAS}", result.getContent());
+        assertEquals(Collections.singleton("REPLICAS"), result.getUnresolvedPlaceholders());
+    }
+
+    private static void assertSegment(CompiledTemplate.Segment segment, String text, boolean placeholder) {
+        assertEquals(text, segment.getText());
+        assertEquals(placeholder, segment.isPlaceholder());
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class LoggerTest {
+
+    private static final String NL = System.lineSeparator();
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @Test
+    public void dropsTheMessagesBelowTheThreshold() {
+        Logger logger = newLogger(Logger.Level.WARN, Logger.DEFAULT_DUMP_LIMIT);
+
+        logger.debug("debug %s", 1);
+        logger.println("info", false);
+        logger.log(Logger.Level.WARN, false, "warn %s", 2);
+        logger.log(Logger.Level.ERROR, false, "error");
+
+        assertEquals("[WARN] warn 2" + NL + "[ERROR] error" + NL, getOutput());
+        assertFalse(logger.isEnabled(Logger.Level.INFO));
+        assertTrue(logger.isEnabled(Logger.Level.ERROR));
+    }
+
+    @Test
+    public void printsTheDebugMessagesAtTheDebugLevel() {
+        Logger logger = newLogger(Logger.Level.DEBUG, Logger.DEFAULT_DUMP_LIMIT);
+
+        logger.debug("cache hit %s", "app:1");
+
+        assertEquals("[DEBUG] cache hit app:1" + NL, getOutput());
+    }
+
+    @Test
+    public void keepsTheTemplateWithoutArguments() {
+        Logger logger = newLogger(Logger.Level.INFO, Logger.DEFAULT_DUMP_LIMIT);
+
+        logger.println("progress 100%", false);
+
+        assertEquals("progress 100%" + NL, getOutput());
+    }
+
+    @Test
+    public void appendsTheArgumentsOfATemplateWithALiteralPercent() {
+        Logger logger = newLogger(Logger.Level.INFO, Logger.DEFAULT_DUMP_LIMIT);
+
+        logger.log(Logger.Level.INFO, false, "cpu 100% busy on %s", "node-1");
+
+        assertEquals("cpu 100% busy on %s [node-1]" + NL, getOutput());
+    }
+
+    @Test
+    public void dumpsTheContentWithinTheLimit() {
+        Logger logger = newLogger(Logger.Level.INFO, 10);
+
+        assertFalse(logger.dump("deploy file", "0123456789", null));
+
+        assertEquals("deploy file:" + NL + "0123456789" + NL, getOutput());
+    }
+
+    @Test
+    public void truncatesTheContentToTheLimit() {
+        Logger logger = newLogger(Logger.Level.INFO, 4);
+
+        assertTrue(logger.dump("deploy file", "0123456789", 25, "deploy.yaml"));
+
+        assertEquals("deploy file:" + NL + "0123" + NL + "... (21 of 25 characters omitted, full content archived as deploy.yaml)" + NL, getOutput());
+    }
+
+    @Test
+    public void truncatesToTheHeadWhenItIsShorterThanTheLimit() {
+        Logger logger = newLogger(Logger.Level.INFO, 100);
+
+        assertTrue(logger.dump("deploy file", "0123", 10, null));
+
+        assertEquals("deploy file:" + NL + "0123" + NL + "... (6 of 10 characters omitted)" + NL, getOutput());
+    }
+
+    @Test
+    public void onlyReportsTheOmittedLengthWithoutDumpLimit() {
+        Logger logger = newLogger(Logger.Level.INFO, 0);
+
+        assertTrue(logger.dump("deploy file", "0123", 4, null));
+
+        assertEquals("deploy file: (4 of 4 characters omitted)" + NL, getOutput());
+    }
+
+    @Test
+    public void reportsTheTruncationBelowTheThreshold() {
+        Logger logger = newLogger(Logger.Level.WARN, 4);
+
+        assertTrue(logger.dump("deploy file", "0123456789", null));
+        assertFalse(logger.dump("deploy file", "0123", null));
+
+        assertEquals("", getOutput());
+    }
+
+    private Logger newLogger(Logger.Level threshold, int dumpLimit) {
+        return Logger.of(new PrintStream(output, true), threshold, dumpLimit);
+    }
+
+    private String getOutput() {
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
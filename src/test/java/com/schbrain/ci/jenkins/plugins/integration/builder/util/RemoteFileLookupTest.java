@@ -0,0 +1,124 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class RemoteFileLookupTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readsTheClosestIndexedFileWithoutWalking() throws Exception {
+        File workspace = temporaryFolder.newFolder();
+        write(new File(workspace, "Dockerfile"), "FROM root");
+        write(new File(temporaryFolder.newFolder(workspace.getName(), "module"), "Dockerfile"), "FROM module");
+        // a file which is not indexed is not found, the workspace is not walked again
+        write(new File(workspace, "pom.xml"), "<project/>");
+        Map<String, List<String>> index = new HashMap<>();
+        index.put("Dockerfile", Arrays.asList("Dockerfile", "module" + File.separator + "Dockerfile"));
+
+        RemoteFileLookup.Result result = new RemoteFileLookup(WorkspaceFileIndex.DEFAULT_EXCLUDES)
+                .read("Dockerfile").find("pom.xml").withIndex(index).invoke(workspace, null);
+
+        assertTrue(result.isWorkspaceExists());
+        RemoteFileLookup.Match match = result.get("Dockerfile");
+        assertNotNull(match);
+        assertEquals("Dockerfile", match.getRelativePath());
+        assertEquals(2, match.getRelativePaths().size());
+        assertEquals("FROM root", match.getContent());
+        assertNull(result.get("pom.xml"));
+    }
+
+    @Test
+    public void keepsTheIndexOnTheNodeUntilItIsDiscarded() throws Exception {
+        File workspace = temporaryFolder.newFolder();
+        write(new File(workspace, "Dockerfile"), "FROM root");
+        String indexKey = UUID.randomUUID().toString();
+
+        RemoteFileLookup.Result result = new RemoteFileLookup(WorkspaceFileIndex.DEFAULT_EXCLUDES)
+                .find("Dockerfile").withIndexKey(indexKey, null).invoke(workspace, null);
+        assertNotNull(result.get("Dockerfile"));
+
+        // the index of the key is reused, the workspace is not walked again
+        write(new File(workspace, "pom.xml"), "<project/>");
+        result = new RemoteFileLookup(WorkspaceFileIndex.DEFAULT_EXCLUDES)
+                .read("pom.xml").withIndexKey(indexKey, null).invoke(workspace, null);
+        assertNull(result.get("pom.xml"));
+
+        String newIndexKey = UUID.randomUUID().toString();
+        result = new RemoteFileLookup(WorkspaceFileIndex.DEFAULT_EXCLUDES)
+                .read("pom.xml").withIndexKey(newIndexKey, indexKey).invoke(workspace, null);
+        RemoteFileLookup.Match match = result.get("pom.xml");
+        assertNotNull(match);
+        assertEquals("<project/>", match.getContent());
+    }
+
+    @Test
+    public void answersTheLookupFromTheIndexAlone() throws IOException {
+        RemoteFileLookup lookup = new RemoteFileLookup(WorkspaceFileIndex.DEFAULT_EXCLUDES).find("values.yaml");
+        assertFalse(lookup.isReading());
+
+        RemoteFileLookup.Result result = lookup.resolve(null,
+                Collections.singletonMap("values.yaml", Collections.singletonList("deploy/values.yaml")));
+
+        RemoteFileLookup.Match match = result.get("values.yaml");
+        assertNotNull(match);
+        assertEquals("deploy/values.yaml", match.getRelativePath());
+        assertNull(match.getContent());
+        assertNull(match.getProperties());
+    }
+
+    @Test
+    public void skipsTheFilesRemovedSinceTheWorkspaceWasIndexed() throws Exception {
+        File workspace = temporaryFolder.newFolder();
+        write(new File(workspace, "build.properties"), "name=application\n");
+
+        RemoteFileLookup lookup = new RemoteFileLookup(WorkspaceFileIndex.DEFAULT_EXCLUDES)
+                .readProperties("build.properties").read("Dockerfile");
+        assertTrue(lookup.isReading());
+        Map<String, List<String>> index = new HashMap<>();
+        index.put("build.properties", Collections.singletonList("build.properties"));
+        index.put("Dockerfile", Collections.singletonList("Dockerfile"));
+        RemoteFileLookup.Result result = lookup.withIndex(index).invoke(workspace, null);
+
+        RemoteFileLookup.Match properties = result.get("build.properties");
+        assertNotNull(properties);
+        assertEquals(Collections.singletonMap("name", "application"), properties.getProperties());
+        assertNull(result.get("Dockerfile"));
+    }
+
+    @Test
+    public void reportsAMissingWorkspace() throws Exception {
+        File workspace = new File(temporaryFolder.getRoot(), "missing");
+
+        RemoteFileLookup.Result result = new RemoteFileLookup(WorkspaceFileIndex.DEFAULT_EXCLUDES)
+                .read("Dockerfile").invoke(workspace, null);
+
+        assertFalse(result.isWorkspaceExists());
+        assertNull(result.get("Dockerfile"));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
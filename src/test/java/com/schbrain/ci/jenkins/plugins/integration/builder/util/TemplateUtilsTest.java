@@ -0,0 +1,52 @@
+package com.schbrain.ci.jenkins.plugins.integration.builder.util;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author liaozan
+ * @since 2022/3/10
+ */
+public class TemplateUtilsTest {
+
+    @Test
+    public void sharesTheCompiledTemplateOfTheSameContent() {
+        String template = "name: {NAME}";
+
+        assertSame(TemplateUtils.compile(template), TemplateUtils.compile(new String(template.toCharArray())));
+        assertNotSame(TemplateUtils.compile(template), TemplateUtils.compile("name: {NAME} "));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedTemplates() {
+        CompiledTemplate recentlyUsed = TemplateUtils.compile("recently used {NAME}");
+        CompiledTemplate evicted = TemplateUtils.compile("evicted {NAME}");
+        for (int i = 0; i < 40; i++) {
+            TemplateUtils.compile("template " + i);
+            assertSame(recentlyUsed, TemplateUtils.compile("recently used {NAME}"));
+        }
+
+        assertNotSame(evicted, TemplateUtils.compile("evicted {NAME}"));
+    }
+
+    @Test
+    public void formatsWithTheCachedTemplate() {
+        assertEquals("name: application", TemplateUtils.format("name: {NAME}", Collections.singletonMap("NAME", "application")));
+        assertEquals("name: application", TemplateUtils.format("name: {NAME}", Collections.singletonMap("NAME", "application")));
+        assertEquals("name: {NAME}", TemplateUtils.format("name: {NAME}", Collections.emptyMap()));
+        assertNull(TemplateUtils.format(null, Collections.singletonMap("NAME", "application")));
+    }
+
+    @Test
+    public void rendersIndependentlyOfThePreviousRenderOfTheThread() {
+        CompiledTemplate.Result large = TemplateUtils.render("{CONTENT}", Collections.singletonMap("CONTENT", "a very long rendered content"));
+        CompiledTemplate.Result small = TemplateUtils.render("{CONTENT}", Collections.singletonMap("CONTENT", "short"));
+
+        assertEquals("a very long rendered content", large.getContent());
+        assertEquals("short", small.getContent());
+    }
+
+}